@@ -0,0 +1,160 @@
+"""Reference receiver for the HttpData sink of the connector.
+
+Stores every file the sink sends under OUTPUT_DIR, at the path from its X-File-Path header. Understands all upload
+modes of the sink, so it can be used to test them end to end on localhost:
+
+- single files: one POST per file
+- batches: a multipart/mixed POST with the X-File-Path/X-File-Name headers on each body part
+- chunked uploads: POSTs with X-Upload-Id, X-Chunk-Offset and X-Total-Size, then one with X-Upload-Commit: true
+- gzip: request bodies sent with Content-Encoding: gzip
+
+Chunks are written into OUTPUT_DIR/.uploads/<upload id>, and the received byte ranges are appended to a .ranges file
+next to it, so uploads survive a restart of the receiver. Uploads that are never committed are left there.
+
+Example destination for a local test:
+    {"type": "HttpData", "baseUrl": "http://localhost:8090/", "chunkThresholdBytes": "1048576"}
+"""
+
+import email.parser
+import email.policy
+import gzip
+import json
+import os
+import threading
+from http.server import BaseHTTPRequestHandler, ThreadingHTTPServer
+
+# Configuration
+PORT = int(os.getenv("PORT", "8090"))
+OUTPUT_DIR = os.getenv("OUTPUT_DIR", "./received")  # Directory to store the received files
+UPLOADS_DIR = os.path.join(OUTPUT_DIR, ".uploads")  # Chunked uploads in progress
+
+# Ensure output directories exist
+os.makedirs(UPLOADS_DIR, exist_ok=True)
+
+uploads_lock = threading.Lock()
+
+
+def target_path(file_path):
+    """Resolve X-File-Path below OUTPUT_DIR, refusing paths that would escape it."""
+    relative = os.path.normpath(file_path.replace("\\", "/")).lstrip("/")
+    if relative.startswith(".."):
+        raise ValueError(f"Refusing file path outside of the output directory: {file_path}")
+    return os.path.join(OUTPUT_DIR, relative)
+
+
+def store(file_path, content):
+    path = target_path(file_path)
+    os.makedirs(os.path.dirname(path), exist_ok=True)
+    tmp_path = path + ".tmp"
+    with open(tmp_path, "wb") as file:
+        file.write(content)
+    os.replace(tmp_path, path)
+    print(f"Stored {len(content)} bytes at {path}")
+
+
+def store_batch(content_type, body):
+    message = email.parser.BytesParser(policy=email.policy.HTTP).parsebytes(
+        b"Content-Type: " + content_type.encode("ascii") + b"\r\n\r\n" + body)
+    count = 0
+    for part in message.iter_parts():
+        store(part["X-File-Path"], part.get_payload(decode=True) or b"")
+        count += 1
+    return count
+
+
+def upload_path(upload_id):
+    if not upload_id.replace("-", "").isalnum():
+        raise ValueError(f"Invalid upload id: {upload_id}")
+    return os.path.join(UPLOADS_DIR, upload_id)
+
+
+def store_chunk(upload_id, total_size, offset, content):
+    data_path = upload_path(upload_id)
+    with uploads_lock:
+        if not os.path.exists(data_path):
+            with open(data_path, "wb") as file:
+                file.truncate(total_size)
+    with open(data_path, "r+b") as file:
+        file.seek(offset)
+        file.write(content)
+    # record the range only once its bytes are written
+    with uploads_lock, open(data_path + ".ranges", "a") as ranges:
+        ranges.write(f"{offset} {len(content)}\n")
+
+
+def commit(upload_id, file_path, total_size):
+    data_path = upload_path(upload_id)
+    with uploads_lock:
+        ranges = {}
+        if os.path.exists(data_path + ".ranges"):
+            with open(data_path + ".ranges") as file:
+                for line in file:
+                    offset, length = line.split()
+                    ranges[int(offset)] = int(length)
+        received = sum(ranges.values())
+        if received != total_size:
+            return False, f"upload {upload_id} has {received} of {total_size} bytes"
+        path = target_path(file_path)
+        os.makedirs(os.path.dirname(path), exist_ok=True)
+        os.replace(data_path, path)
+        os.remove(data_path + ".ranges")
+    print(f"Committed chunked upload {upload_id}: {total_size} bytes at {path}")
+    return True, None
+
+
+class Handler(BaseHTTPRequestHandler):
+
+    def do_POST(self):
+        try:
+            body = self.read_body()
+            upload_id = self.headers.get("X-Upload-Id")
+            content_type = self.headers.get("Content-Type", "")
+
+            if upload_id:
+                total_size = int(self.headers["X-Total-Size"])
+                if self.headers.get("X-Upload-Commit") == "true":
+                    committed, error = commit(upload_id, self.headers["X-File-Path"], total_size)
+                    if not committed:
+                        self.reply(409, {"error": error})
+                        return
+                else:
+                    store_chunk(upload_id, total_size, int(self.headers["X-Chunk-Offset"]), body)
+                self.reply(200, {"uploadId": upload_id})
+            elif content_type.startswith("multipart/mixed"):
+                self.reply(200, {"files": store_batch(content_type, body)})
+            else:
+                store(self.headers["X-File-Path"], body)
+                self.reply(200, {"files": 1})
+        except (KeyError, ValueError) as e:
+            self.reply(400, {"error": str(e)})
+
+    def read_body(self):
+        if self.headers.get("Transfer-Encoding", "").lower() == "chunked":
+            body = bytearray()
+            while True:
+                size = int(self.rfile.readline().split(b";")[0], 16)
+                if size == 0:
+                    self.rfile.readline()
+                    break
+                body += self.rfile.read(size)
+                self.rfile.readline()
+            body = bytes(body)
+        else:
+            body = self.rfile.read(int(self.headers.get("Content-Length", 0)))
+        if self.headers.get("Content-Encoding") == "gzip":
+            body = gzip.decompress(body)
+        return body
+
+    def reply(self, status, payload):
+        content = json.dumps(payload).encode("utf-8")
+        self.send_response(status)
+        self.send_header("Content-Type", "application/json")
+        self.send_header("Content-Length", str(len(content)))
+        self.end_headers()
+        self.wfile.write(content)
+
+
+# Start the server
+server = ThreadingHTTPServer(("", PORT), Handler)
+print(f"Receiving files on port {PORT} into {OUTPUT_DIR}")
+server.serve_forever()
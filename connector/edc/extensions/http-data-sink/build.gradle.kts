@@ -10,4 +10,10 @@ dependencies {
     implementation(libs.edc.http.spi)
     implementation(libs.edc.data.plane.core)
     implementation(libs.edc.data.plane.http)
+
+    // Upload scheduling, rate limiting and streaming request bodies shared by the sinks
+    implementation(project(":edc:extensions:http-upload-common"))
+
+    testImplementation(libs.okhttp.mockwebserver)
+    testImplementation(libs.awaitility)
 }
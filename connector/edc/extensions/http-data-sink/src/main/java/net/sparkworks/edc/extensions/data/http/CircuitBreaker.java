@@ -0,0 +1,122 @@
+package net.sparkworks.edc.extensions.data.http;
+
+import org.eclipse.edc.spi.monitor.Monitor;
+
+import java.util.function.Consumer;
+
+/**
+ * Circuit breaker of one destination, shared by all transfers to it.
+ * <p>
+ * After {@code failureThreshold} consecutive failed requests the circuit opens and no request is let through for the
+ * open duration. Then a single probe request is allowed: if it succeeds the circuit closes, otherwise it opens again.
+ * Every request let through must be reported with {@link #recordSuccess()} or {@link #recordFailure()}, or with
+ * {@link #cancel()} if it was not sent after all, otherwise a probe would keep the circuit open for good.
+ * <p>
+ * Transfers {@link #retain() retain} the circuit breaker they use and {@link #release() release} it when they end;
+ * once the last one has released it, it is handed to its release callback, so that it can be forgotten.
+ */
+class CircuitBreaker {
+
+    private final String destination;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final Monitor monitor;
+    private final Consumer<CircuitBreaker> onRelease;
+    private int users;
+    private int consecutiveFailures;
+    private long openUntil;
+    private boolean probing;
+
+    CircuitBreaker(String destination, int failureThreshold, long openMillis, Monitor monitor) {
+        this(destination, failureThreshold, openMillis, monitor, circuitBreaker -> { });
+    }
+
+    CircuitBreaker(String destination, int failureThreshold, long openMillis, Monitor monitor, Consumer<CircuitBreaker> onRelease) {
+        this.destination = destination;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.monitor = monitor;
+        this.onRelease = onRelease;
+    }
+
+    /**
+     * Called for every transfer that starts using the circuit breaker.
+     */
+    synchronized void retain() {
+        users++;
+    }
+
+    /**
+     * Called by a transfer that used the circuit breaker once it ends.
+     */
+    void release() {
+        boolean unused;
+        synchronized (this) {
+            users--;
+            unused = users <= 0;
+        }
+        if (unused) {
+            onRelease.accept(this);
+        }
+    }
+
+    /**
+     * Whether no transfer uses the circuit breaker.
+     */
+    synchronized boolean unused() {
+        return users <= 0;
+    }
+
+    long openMillis() {
+        return openMillis;
+    }
+
+    /**
+     * Whether a request may be sent now. While the circuit is open this is false, except for one probe request once
+     * the open duration has passed.
+     */
+    synchronized boolean allowRequest() {
+        if (consecutiveFailures < failureThreshold) {
+            return true;
+        }
+        if (probing || System.currentTimeMillis() < openUntil) {
+            return false;
+        }
+        probing = true;
+        return true;
+    }
+
+    /**
+     * Records a request the destination answered, even with a rejection.
+     */
+    synchronized void recordSuccess() {
+        if (consecutiveFailures >= failureThreshold) {
+            monitor.info("Circuit to " + destination + " closed");
+        }
+        consecutiveFailures = 0;
+        probing = false;
+    }
+
+    /**
+     * Records a request that was let through but not sent, because the sending thread was interrupted or the part
+     * could not be read. Its outcome says nothing about the destination, but a probe it held is given up, so the next
+     * request may probe again.
+     */
+    synchronized void cancel() {
+        probing = false;
+    }
+
+    /**
+     * Records a request that failed with an I/O error or a server error.
+     */
+    synchronized void recordFailure() {
+        consecutiveFailures++;
+        probing = false;
+        if (consecutiveFailures >= failureThreshold) {
+            if (consecutiveFailures == failureThreshold) {
+                monitor.warning("Circuit to " + destination + " opened after " + consecutiveFailures + " consecutive failures");
+            }
+            openUntil = System.currentTimeMillis() + openMillis;
+        }
+    }
+}
@@ -1,6 +1,13 @@
 package net.sparkworks.edc.extensions.data.http;
 
+import net.sparkworks.edc.extensions.upload.GzipRequestBody;
+import net.sparkworks.edc.extensions.upload.PartRequestBody;
+import net.sparkworks.edc.extensions.upload.ThrottledRequestBody;
+import net.sparkworks.edc.extensions.upload.TokenBucket;
+import net.sparkworks.edc.extensions.upload.UploadScheduler;
+import okhttp3.Headers;
 import okhttp3.MediaType;
+import okhttp3.MultipartBody;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import org.eclipse.edc.connector.dataplane.http.spi.HttpDataAddress;
@@ -11,32 +18,208 @@ import org.eclipse.edc.http.spi.EdcHttpClient;
 import org.eclipse.edc.spi.monitor.Monitor;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 /**
  * Custom HTTP Data Sink that adds the file path as a custom header
  * and supports Bearer token authentication.
+ * <p>
+ * Up to {@code maxInFlight} parts of a transfer are uploaded concurrently on the upload executor, so that many small
+ * files do not each pay a full round trip one after the other. Uploads can be kept in stream order per file or per
+ * directory with {@link UploadOrdering}.
+ * <p>
+ * With {@link BatchLimits} above one file, consecutive small parts are packed into a single multipart/mixed POST,
+ * each body part carrying its own {@code X-File-Path} and {@code X-File-Name} headers. A batch is sent once it is
+ * full or once its first part has waited for the linger time, whichever comes first.
+ * <p>
+ * With {@link Compression#GZIP}, request bodies are gzip-compressed while they are streamed and sent with
+ * {@code Content-Encoding: gzip}.
+ * <p>
+ * Uploads that fail with an I/O error, a server error, 408 or 429 are retried with exponential backoff and jitter
+ * according to the {@link RetryPolicy}. Parts that still fail, or that arrive while the {@link CircuitBreaker} of the
+ * destination is open, are moved to the durable {@link RetrySpool} of the transfer instead of holding up the rest of
+ * the stream. The transfer delivers them from there in the background, and hands the spool to {@link SpoolRecovery}
+ * if it ends before they are delivered. Other error statuses are permanent rejections.
+ * <p>
+ * Files of at least {@link ChunkLimits#thresholdBytes()} are uploaded in fixed-size chunks instead of a single POST.
+ * Every chunk carries {@code X-Upload-Id}, {@code X-Chunk-Offset} and {@code X-Total-Size} headers, chunks are sent
+ * in parallel and retried on their own, and a final request with {@code X-Upload-Commit: true} tells the destination
+ * to assemble the file. Chunks the destination acknowledged are not sent again when the file is retried.
+ * <p>
+ * Every request takes a slot of the {@link UploadScheduler} shared by all transfers, which hands slots out in
+ * proportion to the weight in the {@link RateLimits} of each transfer. The rate limits also cap the requests and the
+ * bytes on the wire per second of a transfer; requests wait for their turn before they take a slot.
  */
 public class CustomHttpDataSinkWithPartName implements DataSink {
     
+    private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+    
     private final EdcHttpClient httpClient;
     private final HttpDataAddress destinationAddress;
     private final Monitor monitor;
     private final ExecutorService executorService;
+    private final ExecutorService uploadExecutor;
+    private final ScheduledExecutorService scheduler;
+    private final int maxInFlight;
+    private final UploadOrdering uploadOrdering;
+    private final BatchLimits batchLimits;
+    private final Compression compression;
+    private final RetryPolicy retryPolicy;
+    private final CircuitBreaker circuitBreaker;
+    private final RetrySpool retrySpool;
+    private final ChunkLimits chunkLimits;
+    private final UploadScheduler.Share uploadShare;
+    // null when the transfer is not limited
+    private final TokenBucket requestRate;
+    private final TokenBucket byteRate;
+    // chunked uploads of parts that have not been committed yet, so a retry of the part resumes them
+    private final Map<DataSource.Part, ChunkedUpload> chunkedUploads = new ConcurrentHashMap<>();
     private final String authKey;
-
-    public CustomHttpDataSinkWithPartName(EdcHttpClient httpClient, HttpDataAddress destinationAddress, Monitor monitor, ExecutorService executorService) {
+    
+    /**
+     * Which uploads of a transfer are kept in the order of the part stream.
+     */
+    public enum UploadOrdering {
+        /**
+         * Uploads may complete in any order.
+         */
+        NONE,
+        /**
+         * Uploads of the same file are sent one after another, so versions of a file are never reordered.
+         */
+        FILE,
+        /**
+         * Uploads of files in the same directory are sent one after another.
+         */
+        DIRECTORY
+    }
+    
+    /**
+     * Content encoding of the request bodies.
+     */
+    public enum Compression {
+        NONE,
+        GZIP
+    }
+    
+    /**
+     * Retries of a failed upload before its parts are spooled.
+     *
+     * @param maxAttempts number of attempts, including the first one
+     * @param initialBackoffMillis backoff before the first retry, doubled for every further one
+     * @param maxBackoffMillis upper bound of the backoff
+     */
+    public record RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis) {
+        
+        /**
+         * Backoff before the given retry, with equal jitter: half of the exponential backoff plus a random part of the
+         * other half, so that parts failing together do not retry together.
+         */
+        long backoff(int retry) {
+            var exponential = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(retry, 30));
+            return exponential / 2 + ThreadLocalRandom.current().nextLong(exponential / 2 + 1);
+        }
+    }
+    
+    /**
+     * Result of an upload attempt.
+     */
+    private enum Outcome {
+        DELIVERED,
+        REJECTED,
+        FAILED,
+        DEFERRED
+    }
+    
+    /**
+     * Chunked upload of large files.
+     *
+     * @param thresholdBytes size from which files are uploaded in chunks, 0 to disable chunked uploads
+     * @param chunkSize size of every chunk but the last one
+     * @param parallelism number of chunks of a file uploaded at once, which is also the number of chunks held in memory
+     */
+    public record ChunkLimits(long thresholdBytes, int chunkSize, int parallelism) {
+        
+        boolean appliesTo(DataSource.Part part) {
+            return thresholdBytes > 0 && part.size() >= thresholdBytes;
+        }
+    }
+    
+    /**
+     * Limits of a transfer towards the destination, so that one transfer cannot crowd out the others.
+     *
+     * @param bytesPerSecond bytes sent per second, after compression, 0 for no limit
+     * @param requestsPerSecond requests sent per second, 0 for no limit
+     * @param weight share of the upload slots relative to the other transfers
+     */
+    public record RateLimits(long bytesPerSecond, long requestsPerSecond, int weight) {
+    }
+    
+    /**
+     * Limits of a batch of parts sent in one request. A batch of one file disables batching.
+     *
+     * @param maxFiles maximum number of parts in a batch
+     * @param maxBytes maximum total size of the parts in a batch; larger parts and parts of unknown size are sent alone
+     * @param lingerMillis time a batch waits for more parts after its first one
+     */
+    public record BatchLimits(int maxFiles, long maxBytes, long lingerMillis) {
+        
+        boolean enabled() {
+            return maxFiles > 1;
+        }
+    }
+    
+    public CustomHttpDataSinkWithPartName(EdcHttpClient httpClient, HttpDataAddress destinationAddress, Monitor monitor, ExecutorService executorService,
+                                          ExecutorService uploadExecutor, ScheduledExecutorService scheduler, int maxInFlight,
+                                          UploadOrdering uploadOrdering, BatchLimits batchLimits, Compression compression,
+                                          RetryPolicy retryPolicy, CircuitBreaker circuitBreaker, RetrySpool retrySpool,
+                                          ChunkLimits chunkLimits, RateLimits rateLimits, UploadScheduler uploadScheduler) {
         this.httpClient = httpClient;
         this.destinationAddress = destinationAddress;
         this.monitor = monitor;
         this.executorService = executorService;
-
+        this.uploadExecutor = uploadExecutor;
+        this.scheduler = scheduler;
+        this.maxInFlight = maxInFlight;
+        this.uploadOrdering = uploadOrdering;
+        this.batchLimits = batchLimits;
+        this.compression = compression;
+        this.retryPolicy = retryPolicy;
+        this.circuitBreaker = circuitBreaker;
+        this.retrySpool = retrySpool;
+        this.chunkLimits = chunkLimits;
+        this.uploadShare = uploadScheduler.share(rateLimits.weight());
+        this.requestRate = rateLimits.requestsPerSecond() > 0 ? new TokenBucket(rateLimits.requestsPerSecond()) : null;
+        this.byteRate = rateLimits.bytesPerSecond() > 0 ? new TokenBucket(rateLimits.bytesPerSecond()) : null;
+        
         // Extract auth token from destination address properties
         this.authKey = destinationAddress.getAuthKey();
         if (authKey != null && !authKey.isEmpty()) {
             monitor.info("Auth token configured for HTTP data sink");
         }
+        // the spool does not save credentials, it is handed the ones of the transfer
+        retrySpool.authorize(authorization());
     }
     
     @Override
@@ -44,6 +227,10 @@ public class CustomHttpDataSinkWithPartName implements DataSink {
         return CompletableFuture.supplyAsync(() -> {
             //monitor.info("Starting custom HTTP transfer with file path headers");
             
+            var uploads = new Uploads();
+            // deliver what earlier transfers or failed uploads left in the spool while the stream is running
+            var spoolDrain = scheduler.scheduleWithFixedDelay(() -> uploadExecutor.execute(this::drainSpool), 0, circuitBreaker.openMillis(), TimeUnit.MILLISECONDS);
+            
             try {
                 // Open the stream of parts from the data source
                 var streamResult = source.openPartStream();
@@ -53,70 +240,283 @@ public class CustomHttpDataSinkWithPartName implements DataSink {
                     return StreamResult.<Object>error(streamResult.getFailureDetail());
                 }
                 
-                var partStream = streamResult.getContent();
-                
-                // Process each part (file) in the stream
-                partStream.forEach(part -> {
-                    // Get the file path from part name
-                    String filePath = part.name();
-                    
-                    //monitor.info("Processing file: " + filePath);
-                    
-                    try (var inputStream = part.openStream()) {
-                        // Read the file content
-                        byte[] fileContent = inputStream.readAllBytes();
-                        
-                        //monitor.info("Read " + fileContent.length + " bytes from file: " + filePath);
-                        
-                        // Create request body with file content
-                        var requestBody = RequestBody.create(fileContent, MediaType.parse("application/octet-stream"));
-
-                        // Build HTTP request with custom headers
-                        var requestBuilder = new Request.Builder()
-                                .url(destinationAddress.getBaseUrl())
-                                .post(requestBody)
-                                .header("X-File-Path", filePath)
-                                .header("X-File-Name", extractFileName(filePath))
-                                .header("Content-Type", "application/octet-stream");
-
-                        // Add Authorization header if auth token is configured
-                        if (authKey != null && !authKey.isEmpty()) {
-                            requestBuilder.header("Authorization", "Bearer " + authKey);
-                            monitor.debug("Adding Authorization header to request");
-                        }
-
-                        var httpRequest = requestBuilder.build();
-
-                        monitor.info("Sending HTTP POST to: " + destinationAddress.getBaseUrl());
-                        
-                        // Execute the HTTP request
-                        try (var response = httpClient.execute(httpRequest)) {
-                            if (response.isSuccessful()) {
-                                monitor.info("Successfully transferred file: " + filePath + " (status: " + response.code() + ")");
-                            } else {
-                                monitor.warning("Failed to transfer file: " + filePath + " (status: " + response.code() + ")");
-                            }
-                        }
-                        
-                    } catch (IOException e) {
-                        monitor.severe("Error processing file: " + filePath, e);
-                        throw new RuntimeException("Failed to transfer file: " + filePath, e);
+                // Process each part (file) in the stream, stopping at the first failed upload
+                try (var partStream = streamResult.getContent()) {
+                    var parts = partStream.iterator();
+                    while (uploads.error() == null && parts.hasNext()) {
+                        uploads.add(parts.next());
                     }
-                });
+                    
+                    // Send the last batch and wait for the uploads still in flight
+                    uploads.finish();
+                }
+                spoolDrain.cancel(false);
+                drainSpool();
                 
-                // Close the stream
-                partStream.close();
+                monitor.info("HTTP transfer to " + destinationAddress.getBaseUrl() + " finished: " + uploads.sentFiles.get() + " files sent, " + uploads.rejectedFiles.get() + " rejected, " +
+                        uploads.spooledFiles.get() + " spooled for retry");
+                if (retrySpool.size() > 0) {
+                    monitor.warning(retrySpool.size() + " files for " + destinationAddress.getBaseUrl() + " are still spooled, they will be delivered in the background");
+                }
+                var error = uploads.error();
+                if (error != null) {
+                    return StreamResult.<Object>error("Transfer failed: " + error.getMessage());
+                }
                 
                 //monitor.info("Custom HTTP transfer completed successfully");
                 return StreamResult.success();
-                
+            
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return StreamResult.<Object>error("Transfer interrupted");
             } catch (Exception e) {
                 monitor.severe("Transfer operation failed", e);
                 return StreamResult.<Object>error("Transfer failed: " + e.getMessage());
+            } finally {
+                spoolDrain.cancel(false);
+                // chunked uploads of spooled parts are not resumed once the transfer is over
+                chunkedUploads.clear();
+                retrySpool.release();
+                circuitBreaker.release();
             }
         }, executorService);
     }
     
+    /**
+     * Delivers spooled parts one at a time, as long as the destination accepts them.
+     */
+    private void drainSpool() {
+        retrySpool.drain(part -> {
+            if (!circuitBreaker.allowRequest()) {
+                return false;
+            }
+            var outcome = send(part);
+            return outcome == Outcome.DELIVERED || outcome == Outcome.REJECTED;
+        });
+    }
+    
+    /**
+     * Uploads one part.
+     */
+    private Outcome send(DataSource.Part part) {
+        if (chunkLimits.appliesTo(part)) {
+            return sendChunked(part);
+        }
+        
+        // Get the file path from part name
+        String filePath = part.name();
+        
+        //monitor.info("Processing file: " + filePath);
+        
+        // Stream the file content to the socket instead of buffering it on the heap
+        var requestBody = new PartRequestBody(part, OCTET_STREAM);
+        
+        // Build HTTP request with custom headers
+        var requestBuilder = fileRequest(filePath).post(encode(requestBody));
+        
+        return execute(requestBuilder, "file: " + filePath);
+    }
+    
+    /**
+     * Uploads a part in chunks. The part is read sequentially, and up to {@code parallelism} chunks are in flight at
+     * once, each retried on its own. Once all chunks are acknowledged, the upload is committed.
+     */
+    private Outcome sendChunked(DataSource.Part part) {
+        var filePath = part.name();
+        var upload = chunkedUploads.computeIfAbsent(part, it -> new ChunkedUpload(UUID.randomUUID().toString()));
+        var totalSize = part.size();
+        var window = new Semaphore(chunkLimits.parallelism());
+        var chunks = new ArrayList<CompletableFuture<Outcome>>();
+        var chunkFailed = new AtomicReference<Outcome>();
+        
+        try (var inputStream = part.openStream()) {
+            for (long offset = 0; offset < totalSize && chunkFailed.get() == null; offset += chunkLimits.chunkSize()) {
+                var length = (int) Math.min(chunkLimits.chunkSize(), totalSize - offset);
+                if (upload.acknowledgedOffsets.contains(offset)) {
+                    // sent by an earlier attempt
+                    inputStream.skipNBytes(length);
+                    continue;
+                }
+                var content = inputStream.readNBytes(length);
+                if (content.length < length) {
+                    throw new IOException("Part " + filePath + " ended at " + (offset + content.length) + " bytes, before its size of " + totalSize + " bytes");
+                }
+                window.acquire();
+                var chunkOffset = offset;
+                var chunk = retrying(() -> chunkRequest(filePath, upload, totalSize)
+                        .post(encode(RequestBody.create(content, OCTET_STREAM)))
+                        .header("X-Chunk-Offset", String.valueOf(chunkOffset)), "chunk at " + chunkOffset + " of file: " + filePath, 0, uploadExecutor);
+                chunks.add(chunk.whenComplete((outcome, error) -> {
+                    if (outcome == Outcome.DELIVERED) {
+                        upload.acknowledgedOffsets.add(chunkOffset);
+                    } else {
+                        chunkFailed.compareAndSet(null, outcome == null ? Outcome.FAILED : outcome);
+                    }
+                    window.release();
+                }));
+            }
+            CompletableFuture.allOf(chunks.toArray(CompletableFuture[]::new)).exceptionally(error -> null).join();
+        } catch (IOException | UncheckedIOException e) {
+            circuitBreaker.cancel();
+            monitor.warning("Failed to read " + filePath + " for a chunked upload: " + e.getMessage());
+            return Outcome.FAILED;
+        } catch (InterruptedException e) {
+            circuitBreaker.cancel();
+            Thread.currentThread().interrupt();
+            return Outcome.FAILED;
+        }
+        if (chunkFailed.get() != null) {
+            return chunkFailed.get();
+        }
+        
+        var outcome = retrying(() -> chunkRequest(filePath, upload, totalSize)
+                .post(encode(RequestBody.create(new byte[0], OCTET_STREAM)))
+                .header("X-Upload-Commit", "true"), "commit of chunked file: " + filePath, 0, uploadExecutor).join();
+        if (outcome != Outcome.FAILED) {
+            chunkedUploads.remove(part);
+        }
+        return outcome;
+    }
+    
+    /**
+     * Executes a request of a chunked upload, retrying it with backoff while it fails.
+     */
+    private CompletableFuture<Outcome> retrying(Supplier<Request.Builder> request, String description, int attempt, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> execute(request.get(), description), executor).thenCompose(outcome -> {
+            if (outcome == Outcome.FAILED && attempt + 1 < retryPolicy.maxAttempts()) {
+                var backoff = retryPolicy.backoff(attempt);
+                return retrying(request, description, attempt + 1, CompletableFuture.delayedExecutor(backoff, TimeUnit.MILLISECONDS, uploadExecutor));
+            }
+            return CompletableFuture.completedFuture(outcome);
+        });
+    }
+    
+    private Request.Builder chunkRequest(String filePath, ChunkedUpload upload, long totalSize) {
+        return fileRequest(filePath)
+                .header("X-Upload-Id", upload.uploadId)
+                .header("X-Total-Size", String.valueOf(totalSize));
+    }
+    
+    /**
+     * Request to upload a single file, with all headers but the ones of a chunked upload.
+     */
+    private Request.Builder fileRequest(String filePath) {
+        return newRequest()
+                .header("X-File-Path", filePath)
+                .header("X-File-Name", extractFileName(filePath))
+                .header("Content-Type", "application/octet-stream");
+    }
+    
+    /**
+     * Request to the destination with the headers of the transfer.
+     */
+    private Request.Builder newRequest() {
+        var requestBuilder = new Request.Builder().url(destinationAddress.getBaseUrl());
+        // Add Authorization header if auth token is configured
+        var authorization = authorization();
+        if (authorization != null) {
+            requestBuilder.header("Authorization", authorization);
+        }
+        if (compression == Compression.GZIP) {
+            requestBuilder.header("Content-Encoding", "gzip");
+        }
+        return requestBuilder;
+    }
+    
+    /**
+     * Value of the Authorization header of the transfer, null if no auth token is configured.
+     */
+    private String authorization() {
+        return authKey != null && !authKey.isEmpty() ? "Bearer " + authKey : null;
+    }
+    
+    /**
+     * Uploads a batch of parts as one multipart/mixed request, each body part with the headers of a single upload.
+     */
+    private Outcome sendBatch(List<DataSource.Part> parts) {
+        var multipart = new MultipartBody.Builder().setType(MultipartBody.MIXED);
+        for (var part : parts) {
+            var filePath = part.name();
+            multipart.addPart(Headers.of("X-File-Path", filePath, "X-File-Name", extractFileName(filePath)), new PartRequestBody(part, OCTET_STREAM));
+        }
+        
+        var requestBuilder = newRequest()
+                .post(encode(multipart.build()))
+                .header("X-File-Count", String.valueOf(parts.size()));
+        
+        return execute(requestBuilder, "batch of " + parts.size() + " files starting with " + parts.get(0).name());
+    }
+    
+    /**
+     * Executes an upload request in a slot of the transfer's share and reports its result to the circuit breaker.
+     */
+    private Outcome execute(Request.Builder requestBuilder, String description) {
+        var httpRequest = requestBuilder.build();
+        
+        try {
+            if (requestRate != null) {
+                requestRate.acquire(1);
+            }
+            uploadShare.acquire();
+        } catch (InterruptedException e) {
+            circuitBreaker.cancel();
+            Thread.currentThread().interrupt();
+            return Outcome.FAILED;
+        }
+        
+        monitor.info("Sending HTTP POST to: " + destinationAddress.getBaseUrl());
+        
+        // Execute the HTTP request
+        try (var response = httpClient.execute(httpRequest)) {
+            if (response.isSuccessful()) {
+                circuitBreaker.recordSuccess();
+                monitor.info("Successfully transferred " + description + " (status: " + response.code() + ")");
+                return Outcome.DELIVERED;
+            }
+            var code = response.code();
+            if (isRetryable(code)) {
+                circuitBreaker.recordFailure();
+                monitor.warning("Failed to transfer " + description + ", will retry (status: " + code + ")");
+                return Outcome.FAILED;
+            }
+            circuitBreaker.recordSuccess();
+            monitor.warning("Destination rejected " + description + " (status: " + code + ")");
+            return Outcome.REJECTED;
+        } catch (IOException | UncheckedIOException e) {
+            circuitBreaker.recordFailure();
+            monitor.warning("Failed to transfer " + description + ", will retry: " + e.getMessage());
+            return Outcome.FAILED;
+        } finally {
+            uploadShare.release();
+        }
+    }
+    
+    /**
+     * Whether an error status may go away when the request is sent again: server errors, 408 and 429.
+     */
+    static boolean isRetryable(int code) {
+        return code >= 500 || code == 408 || code == 429;
+    }
+    
+    private RequestBody encode(RequestBody requestBody) {
+        var encoded = compression == Compression.GZIP ? new GzipRequestBody(requestBody) : requestBody;
+        return byteRate != null ? new ThrottledRequestBody(encoded, byteRate) : encoded;
+    }
+    
+    /**
+     * Key of the uploads that must stay in stream order with this part, or null if it can be sent in any order
+     */
+    private String orderingKey(String fullPath) {
+        return switch (uploadOrdering) {
+            case NONE -> null;
+            case FILE -> fullPath;
+            case DIRECTORY -> {
+                int lastSlash = fullPath == null ? -1 : Math.max(fullPath.lastIndexOf('/'), fullPath.lastIndexOf('\\'));
+                yield lastSlash >= 0 ? fullPath.substring(0, lastSlash) : "";
+            }
+        };
+    }
+    
     /**
      * Extract just the filename from the full path
      */
@@ -132,4 +532,198 @@ public class CustomHttpDataSinkWithPartName implements DataSink {
         
         return fullPath;
     }
+    
+    /**
+     * Uploads of one transfer. Parts are collected into the pending batch, which is handed to the upload executor
+     * when it is full, when it has lingered long enough or when the transfer ends. Batches are taken and chained
+     * under one lock, so a batch never overtakes an earlier one with a file of the same ordering key. The lock is a
+     * {@link ReentrantLock} rather than a monitor because the transfer thread may block on the upload window while
+     * holding it, which would pin the carrier of a virtual transfer thread.
+     */
+    private class Uploads {
+        
+        private final Semaphore inFlight = new Semaphore(maxInFlight);
+        // last upload of every ordering key still in flight
+        private final Map<String, CompletableFuture<Void>> lastUploads = new ConcurrentHashMap<>();
+        private final AtomicLong sentFiles = new AtomicLong();
+        private final AtomicLong rejectedFiles = new AtomicLong();
+        private final AtomicLong spooledFiles = new AtomicLong();
+        private final AtomicReference<Throwable> uploadError = new AtomicReference<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private List<DataSource.Part> pending = new ArrayList<>();
+        private long pendingBytes;
+        private ScheduledFuture<?> lingerTimer;
+        
+        Throwable error() {
+            return uploadError.get();
+        }
+        
+        void add(DataSource.Part part) throws InterruptedException {
+            lock.lock();
+            try {
+                if (!batchLimits.enabled()) {
+                    dispatch(List.of(part));
+                    return;
+                }
+                
+                var size = part.size();
+                if (size < 0 || size > batchLimits.maxBytes() || chunkLimits.appliesTo(part)) {
+                    // too large or unknown size, send it on its own after the parts before it
+                    flush();
+                    dispatch(List.of(part));
+                    return;
+                }
+                if (pendingBytes + size > batchLimits.maxBytes()) {
+                    flush();
+                }
+                
+                pending.add(part);
+                pendingBytes += size;
+                if (pending.size() >= batchLimits.maxFiles()) {
+                    flush();
+                } else if (pending.size() == 1) {
+                    var batch = pending;
+                    lingerTimer = scheduler.schedule(() -> uploadExecutor.execute(() -> flushLingering(batch)), batchLimits.lingerMillis(), TimeUnit.MILLISECONDS);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        void finish() throws InterruptedException {
+            lock.lock();
+            try {
+                flush();
+            } finally {
+                lock.unlock();
+            }
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+        }
+        
+        private void flushLingering(List<DataSource.Part> batch) {
+            lock.lock();
+            try {
+                // the batch may already have been sent because it filled up
+                if (pending != batch || uploadError.get() != null) {
+                    return;
+                }
+                flush();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        private void flush() throws InterruptedException {
+            if (lingerTimer != null) {
+                lingerTimer.cancel(false);
+                lingerTimer = null;
+            }
+            if (pending.isEmpty()) {
+                return;
+            }
+            var batch = pending;
+            pending = new ArrayList<>();
+            pendingBytes = 0;
+            dispatch(batch);
+        }
+        
+        private void dispatch(List<DataSource.Part> batch) throws InterruptedException {
+            inFlight.acquire();
+            
+            // wait for the previous upload of every ordering key in the batch, whatever its outcome
+            var orderingKeys = new LinkedHashSet<String>();
+            for (var part : batch) {
+                var orderingKey = orderingKey(part.name());
+                if (orderingKey != null) {
+                    orderingKeys.add(orderingKey);
+                }
+            }
+            var previous = orderingKeys.stream()
+                    .map(lastUploads::get)
+                    .filter(Objects::nonNull)
+                    .map(upload -> upload.handle((result, error) -> null))
+                    .toArray(CompletableFuture[]::new);
+            
+            var upload = CompletableFuture.allOf(previous)
+                    .thenCompose(ignored -> upload(batch, 0, uploadExecutor));
+            for (var orderingKey : orderingKeys) {
+                lastUploads.put(orderingKey, upload);
+            }
+            upload.whenComplete((result, error) -> {
+                if (error != null) {
+                    uploadError.compareAndSet(null, error instanceof CompletionException ? error.getCause() : error);
+                }
+                // whatever the outcome, a later upload of these parts starts over
+                batch.forEach(chunkedUploads::remove);
+                for (var orderingKey : orderingKeys) {
+                    lastUploads.remove(orderingKey, upload);
+                }
+                inFlight.release();
+            });
+        }
+        
+        /**
+         * Makes an attempt to upload a batch and schedules the next one after a backoff if it failed. A batch that has
+         * used up its attempts, or that cannot be sent because the circuit is open, is spooled so that its slot in the
+         * upload window is freed.
+         */
+        private CompletableFuture<Void> upload(List<DataSource.Part> batch, int attempt, Executor executor) {
+            return CompletableFuture.supplyAsync(() -> attempt(batch), executor).thenCompose(outcome -> {
+                if (outcome == Outcome.FAILED && attempt + 1 < retryPolicy.maxAttempts()) {
+                    var backoff = retryPolicy.backoff(attempt);
+                    return upload(batch, attempt + 1, CompletableFuture.delayedExecutor(backoff, TimeUnit.MILLISECONDS, uploadExecutor));
+                }
+                switch (outcome) {
+                    case DELIVERED -> sentFiles.addAndGet(batch.size());
+                    case REJECTED -> rejectedFiles.addAndGet(batch.size());
+                    default -> spool(batch);
+                }
+                return CompletableFuture.completedFuture(null);
+            });
+        }
+        
+        private Outcome attempt(List<DataSource.Part> batch) {
+            // keep parts behind spooled parts with the same ordering key, so they are not overtaken
+            if (uploadOrdering != UploadOrdering.NONE && retrySpool.size() > 0) {
+                for (var part : batch) {
+                    var orderingKey = orderingKey(part.name());
+                    if (retrySpool.holds(name -> orderingKey.equals(orderingKey(name)))) {
+                        return Outcome.DEFERRED;
+                    }
+                }
+            }
+            if (!circuitBreaker.allowRequest()) {
+                return Outcome.DEFERRED;
+            }
+            return batch.size() == 1 ? send(batch.get(0)) : sendBatch(batch);
+        }
+        
+        private void spool(List<DataSource.Part> batch) {
+            for (var part : batch) {
+                try {
+                    retrySpool.add(part, destinationAddress.getBaseUrl(), fileRequest(part.name()).build().headers());
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to spool " + part.name() + " for retry", e);
+                }
+            }
+            spooledFiles.addAndGet(batch.size());
+            monitor.info("Spooled " + batch.size() + " files for " + destinationAddress.getBaseUrl() + " to retry later");
+        }
+    }
+    
+    /**
+     * Chunked upload in progress: its id at the destination and the offsets of the chunks it acknowledged.
+     */
+    private static final class ChunkedUpload {
+        
+        private final String uploadId;
+        private final Set<Long> acknowledgedOffsets = ConcurrentHashMap.newKeySet();
+        
+        ChunkedUpload(String uploadId) {
+            this.uploadId = uploadId;
+        }
+    }
 }
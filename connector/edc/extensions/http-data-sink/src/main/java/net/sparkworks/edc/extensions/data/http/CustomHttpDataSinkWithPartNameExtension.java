@@ -1,14 +1,20 @@
 package net.sparkworks.edc.extensions.data.http;
 
 
+import net.sparkworks.edc.extensions.upload.TransferExecutors;
+import net.sparkworks.edc.extensions.upload.UploadScheduler;
 import org.eclipse.edc.connector.dataplane.spi.pipeline.PipelineService;
 import org.eclipse.edc.http.spi.EdcHttpClient;
 import org.eclipse.edc.runtime.metamodel.annotation.Extension;
 import org.eclipse.edc.runtime.metamodel.annotation.Inject;
+import org.eclipse.edc.runtime.metamodel.annotation.Setting;
 import org.eclipse.edc.spi.system.ServiceExtension;
 import org.eclipse.edc.spi.system.ServiceExtensionContext;
 
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Extension(value = "Custom HTTP Data Sink with Part Name Extension")
 public class CustomHttpDataSinkWithPartNameExtension implements ServiceExtension {
@@ -16,12 +22,29 @@ public class CustomHttpDataSinkWithPartNameExtension implements ServiceExtension
     // Set a high loading priority to ensure this loads AFTER the default HTTP extension
     private static final int PRIORITY = 100; // Higher than default (which is usually 0)
     
+    @Setting(value = "Directory where uploads that could not be delivered are spooled until they can be retried")
+    private static final String SPOOL_DIR = "edc.http.sink.spool.dir";
+    
+    @Setting(value = "Consecutive failed uploads after which the circuit to a destination opens")
+    private static final String CIRCUIT_FAILURE_THRESHOLD = "edc.http.sink.circuit.failure.threshold";
+    
+    @Setting(value = "Seconds the circuit to a failing destination stays open before an upload is tried again, at least 1")
+    private static final String CIRCUIT_OPEN_SECONDS = "edc.http.sink.circuit.open.seconds";
+    
+    @Setting(value = "Upload requests running at once across all HTTP sink transfers, shared between them by their upload weight")
+    private static final String MAX_CONCURRENT_UPLOADS = "edc.http.sink.uploads.max";
+    
+    @Setting(value = "Threads that run the transfers: 'platform' for a pool of platform threads, 'virtual' for a virtual thread per transfer (Java 21 or later)")
+    private static final String TRANSFER_THREADS = "edc.http.sink.transfer.threads";
+    
     @Inject
     private EdcHttpClient httpClient;
     
     @Inject
     private PipelineService pipelineService;
     
+    private SpoolRecovery spoolRecovery;
+    
     @Override
     public String name() {
         return "Custom HTTP Data Sink with Part Name";
@@ -36,15 +59,51 @@ public class CustomHttpDataSinkWithPartNameExtension implements ServiceExtension
         monitor.info("Priority: " + PRIORITY);
         monitor.info("=====================================================");
         
-        var executorService = Executors.newFixedThreadPool(10);
+        var executorService = TransferExecutors.create(context.getSetting(TRANSFER_THREADS, "platform"), "http-sink-transfer-", monitor);
         
-        var factory = new CustomHttpDataSinkWithPartNameFactory(httpClient, monitor, executorService);
+        // Uploads run on their own threads; each transfer bounds how many of them it uses at once
+        var uploadThreadCount = new AtomicInteger();
+        var uploadExecutor = Executors.newCachedThreadPool(runnable -> {
+            var thread = new Thread(runnable, "http-sink-upload-" + uploadThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        // Flushes batches that have waited for the linger time and drains the retry spools; the work itself runs on the upload executor
+        var scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "http-sink-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        var spoolDirectory = Path.of(context.getSetting(SPOOL_DIR, "http-sink-spool"));
+        var maxConcurrentUploads = context.getSetting(MAX_CONCURRENT_UPLOADS, 32);
+        var uploadScheduler = new UploadScheduler(maxConcurrentUploads);
+        var circuitFailureThreshold = context.getSetting(CIRCUIT_FAILURE_THRESHOLD, 5);
+        // the spools are drained every time the circuit would let a probe through, which needs a positive period
+        int circuitOpenSeconds = context.getSetting(CIRCUIT_OPEN_SECONDS, 30);
+        if (circuitOpenSeconds < 1) {
+            monitor.warning(CIRCUIT_OPEN_SECONDS + " must be at least 1, using 1 instead of " + circuitOpenSeconds);
+            circuitOpenSeconds = 1;
+        }
+        var circuitOpenDuration = Duration.ofSeconds(circuitOpenSeconds);
+        spoolRecovery = new SpoolRecovery(spoolDirectory, httpClient, scheduler, uploadExecutor, uploadScheduler, circuitFailureThreshold, circuitOpenDuration.toMillis(), monitor);
+        var factory = new CustomHttpDataSinkWithPartNameFactory(httpClient, monitor, executorService, uploadExecutor, scheduler, spoolRecovery,
+                circuitFailureThreshold, circuitOpenDuration, uploadScheduler);
         
         // Register with HIGH priority
         pipelineService.registerFactory(factory);
         
         monitor.info("Custom HTTP Data Sink Factory registered with HIGH priority");
         monitor.info("This will override the default HttpDataSink");
+        monitor.info("Retry spool: " + spoolDirectory.toAbsolutePath());
+        monitor.info("Concurrent uploads: " + maxConcurrentUploads);
         monitor.info("=====================================================");
     }
+    
+    @Override
+    public void start() {
+        // deliver what transfers left in the spool before the last shutdown
+        spoolRecovery.start();
+    }
 }
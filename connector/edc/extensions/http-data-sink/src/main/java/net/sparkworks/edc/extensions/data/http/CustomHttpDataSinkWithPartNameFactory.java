@@ -1,5 +1,6 @@
 package net.sparkworks.edc.extensions.data.http;
 
+import net.sparkworks.edc.extensions.upload.UploadScheduler;
 import org.eclipse.edc.connector.dataplane.http.spi.HttpDataAddress;
 import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSink;
 import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSinkFactory;
@@ -8,21 +9,61 @@ import org.eclipse.edc.spi.monitor.Monitor;
 import org.eclipse.edc.spi.result.Result;
 import org.eclipse.edc.spi.types.domain.transfer.DataFlowStartMessage;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Factory that creates CustomHttpDataSinkWithPartName instances
  */
 public class CustomHttpDataSinkWithPartNameFactory implements DataSinkFactory {
     
+    private static final String DEFAULT_MAX_IN_FLIGHT = "1";
+    private static final String DEFAULT_UPLOAD_ORDERING = "file";
+    private static final String DEFAULT_BATCH_MAX_FILES = "1";
+    private static final String DEFAULT_BATCH_MAX_BYTES = "1048576";
+    private static final String DEFAULT_BATCH_LINGER_MS = "200";
+    private static final String DEFAULT_COMPRESSION = "none";
+    private static final String DEFAULT_RETRY_MAX_ATTEMPTS = "3";
+    private static final String DEFAULT_RETRY_INITIAL_BACKOFF_MS = "500";
+    private static final String DEFAULT_RETRY_MAX_BACKOFF_MS = "10000";
+    private static final String DEFAULT_CHUNK_THRESHOLD_BYTES = "0";
+    private static final String DEFAULT_CHUNK_SIZE_BYTES = "8388608";
+    private static final String DEFAULT_CHUNK_PARALLELISM = "4";
+    private static final String DEFAULT_RATE_LIMIT_BYTES_PER_SECOND = "0";
+    private static final String DEFAULT_RATE_LIMIT_REQUESTS_PER_SECOND = "0";
+    private static final String DEFAULT_UPLOAD_WEIGHT = "1";
+    
     private final EdcHttpClient httpClient;
     private final Monitor monitor;
     private final ExecutorService executorService;
+    private final ExecutorService uploadExecutor;
+    private final ScheduledExecutorService scheduler;
+    private final SpoolRecovery spoolRecovery;
+    private final int circuitFailureThreshold;
+    private final Duration circuitOpenDuration;
+    private final UploadScheduler uploadScheduler;
+    // circuit breakers are per destination and credentials, shared by the transfers to it with the same credentials,
+    // and forgotten once no transfer uses them
+    private final Map<UUID, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
     
-    public CustomHttpDataSinkWithPartNameFactory(EdcHttpClient httpClient, Monitor monitor, ExecutorService executorService) {
+    CustomHttpDataSinkWithPartNameFactory(EdcHttpClient httpClient, Monitor monitor, ExecutorService executorService, ExecutorService uploadExecutor,
+                                          ScheduledExecutorService scheduler, SpoolRecovery spoolRecovery, int circuitFailureThreshold, Duration circuitOpenDuration,
+                                          UploadScheduler uploadScheduler) {
         this.httpClient = httpClient;
         this.monitor = monitor;
         this.executorService = executorService;
+        this.uploadExecutor = uploadExecutor;
+        this.scheduler = scheduler;
+        this.spoolRecovery = spoolRecovery;
+        this.circuitFailureThreshold = circuitFailureThreshold;
+        this.circuitOpenDuration = circuitOpenDuration;
+        this.uploadScheduler = uploadScheduler;
     }
     
     //    @Override
@@ -42,11 +83,42 @@ public class CustomHttpDataSinkWithPartNameFactory implements DataSinkFactory {
     public Result<Void> validateRequest(DataFlowStartMessage request) {
         try {
             // Validate that we can build an HttpDataAddress from the destination
-            HttpDataAddress.Builder.newInstance().copyFrom(request.getDestinationDataAddress()).build();
+            var destinationAddress = HttpDataAddress.Builder.newInstance().copyFrom(request.getDestinationDataAddress()).build();
+            
+            if (maxInFlight(destinationAddress) < 1) {
+                return Result.failure("maxInFlight must be at least 1");
+            }
+            uploadOrdering(destinationAddress);
+            var batchLimits = batchLimits(destinationAddress);
+            if (batchLimits.maxFiles() < 1 || batchLimits.maxBytes() < 1 || batchLimits.lingerMillis() < 0) {
+                return Result.failure("batchMaxFiles and batchMaxBytes must be at least 1 and batchLingerMs must not be negative");
+            }
+            
+            var compression = destinationAddress.getStringProperty("compression", DEFAULT_COMPRESSION);
+            try {
+                CustomHttpDataSinkWithPartName.Compression.valueOf(compression.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return Result.failure("Unsupported compression: " + compression);
+            }
+            
+            var retryPolicy = retryPolicy(destinationAddress);
+            if (retryPolicy.maxAttempts() < 1 || retryPolicy.initialBackoffMillis() < 0 || retryPolicy.maxBackoffMillis() < retryPolicy.initialBackoffMillis()) {
+                return Result.failure("retryMaxAttempts must be at least 1 and retryMaxBackoffMs must not be below a non-negative retryInitialBackoffMs");
+            }
+            
+            var chunkLimits = chunkLimits(destinationAddress);
+            if (chunkLimits.thresholdBytes() < 0 || chunkLimits.chunkSize() < 1 || chunkLimits.parallelism() < 1) {
+                return Result.failure("chunkThresholdBytes must not be negative, chunkSizeBytes and chunkParallelism must be at least 1");
+            }
+            
+            var rateLimits = rateLimits(destinationAddress);
+            if (rateLimits.bytesPerSecond() < 0 || rateLimits.requestsPerSecond() < 0 || rateLimits.weight() < 1) {
+                return Result.failure("rateLimitBytesPerSecond and rateLimitRequestsPerSecond must not be negative and uploadWeight must be at least 1");
+            }
             
             monitor.debug("Request validation successful");
             return Result.success();
-            
+        
         } catch (Exception e) {
             monitor.warning("Request validation failed: " + e.getMessage());
             return Result.failure("Invalid HttpData address: " + e.getMessage());
@@ -67,7 +139,83 @@ public class CustomHttpDataSinkWithPartNameFactory implements DataSinkFactory {
         
         monitor.info("Destination URL: " + destinationAddress.getBaseUrl());
         
+        var maxInFlight = maxInFlight(destinationAddress);
+        var uploadOrdering = uploadOrdering(destinationAddress);
+        monitor.info("Uploads in flight: " + maxInFlight + " (ordering: " + uploadOrdering + ")");
+        var batchLimits = batchLimits(destinationAddress);
+        if (batchLimits.maxFiles() > 1) {
+            monitor.info("Batching up to " + batchLimits.maxFiles() + " files / " + batchLimits.maxBytes() + " bytes per request, linger " + batchLimits.lingerMillis() + " ms");
+        }
+        var compression = CustomHttpDataSinkWithPartName.Compression.valueOf(destinationAddress.getStringProperty("compression", DEFAULT_COMPRESSION).toUpperCase());
+        if (compression != CustomHttpDataSinkWithPartName.Compression.NONE) {
+            monitor.info("Request bodies are sent with " + compression.name().toLowerCase() + " content encoding");
+        }
+        
+        var retryPolicy = retryPolicy(destinationAddress);
+        var chunkLimits = chunkLimits(destinationAddress);
+        if (chunkLimits.thresholdBytes() > 0) {
+            monitor.info("Files from " + chunkLimits.thresholdBytes() + " bytes are uploaded in chunks of " + chunkLimits.chunkSize() + " bytes, " + chunkLimits.parallelism() + " at a time");
+        }
+        var rateLimits = rateLimits(destinationAddress);
+        if (rateLimits.bytesPerSecond() > 0 || rateLimits.requestsPerSecond() > 0) {
+            monitor.info("Transfer limited to " + rateLimits.bytesPerSecond() + " bytes/s and " + rateLimits.requestsPerSecond() + " requests/s (0 = unlimited)");
+        }
+        var baseUrl = destinationAddress.getBaseUrl();
+        var destination = UUID.nameUUIDFromBytes((baseUrl + "\n" + destinationAddress.getAuthKey()).getBytes(StandardCharsets.UTF_8));
+        var circuitBreaker = circuitBreakers.compute(destination, (key, existing) -> {
+            var breaker = existing != null ? existing : new CircuitBreaker(baseUrl, circuitFailureThreshold, circuitOpenDuration.toMillis(), monitor, released -> forget(key, released));
+            breaker.retain();
+            return breaker;
+        });
+        // spooled parts are only ever sent with the request of their own transfer
+        var processId = Optional.ofNullable(request.getProcessId()).orElse(request.getId());
+        var retrySpool = spoolRecovery.open(processId);
+        
         // Create and return the custom sink
-        return new CustomHttpDataSinkWithPartName(httpClient, destinationAddress, monitor, executorService);
+        return new CustomHttpDataSinkWithPartName(httpClient, destinationAddress, monitor, executorService, uploadExecutor, scheduler, maxInFlight, uploadOrdering, batchLimits, compression,
+                retryPolicy, circuitBreaker, retrySpool, chunkLimits, rateLimits, uploadScheduler);
+    }
+    
+    /**
+     * Drops a circuit breaker no transfer uses, unless a new transfer took it up meanwhile.
+     */
+    private void forget(UUID destination, CircuitBreaker circuitBreaker) {
+        circuitBreakers.computeIfPresent(destination, (key, existing) -> existing == circuitBreaker && existing.unused() ? null : existing);
+    }
+    
+    private int maxInFlight(HttpDataAddress destinationAddress) {
+        return Integer.parseInt(destinationAddress.getStringProperty("maxInFlight", DEFAULT_MAX_IN_FLIGHT));
+    }
+    
+    private CustomHttpDataSinkWithPartName.UploadOrdering uploadOrdering(HttpDataAddress destinationAddress) {
+        return CustomHttpDataSinkWithPartName.UploadOrdering.valueOf(destinationAddress.getStringProperty("uploadOrdering", DEFAULT_UPLOAD_ORDERING).toUpperCase());
+    }
+    
+    private CustomHttpDataSinkWithPartName.RetryPolicy retryPolicy(HttpDataAddress destinationAddress) {
+        return new CustomHttpDataSinkWithPartName.RetryPolicy(
+                Integer.parseInt(destinationAddress.getStringProperty("retryMaxAttempts", DEFAULT_RETRY_MAX_ATTEMPTS)),
+                Long.parseLong(destinationAddress.getStringProperty("retryInitialBackoffMs", DEFAULT_RETRY_INITIAL_BACKOFF_MS)),
+                Long.parseLong(destinationAddress.getStringProperty("retryMaxBackoffMs", DEFAULT_RETRY_MAX_BACKOFF_MS)));
+    }
+    
+    private CustomHttpDataSinkWithPartName.ChunkLimits chunkLimits(HttpDataAddress destinationAddress) {
+        return new CustomHttpDataSinkWithPartName.ChunkLimits(
+                Long.parseLong(destinationAddress.getStringProperty("chunkThresholdBytes", DEFAULT_CHUNK_THRESHOLD_BYTES)),
+                Integer.parseInt(destinationAddress.getStringProperty("chunkSizeBytes", DEFAULT_CHUNK_SIZE_BYTES)),
+                Integer.parseInt(destinationAddress.getStringProperty("chunkParallelism", DEFAULT_CHUNK_PARALLELISM)));
+    }
+    
+    private CustomHttpDataSinkWithPartName.RateLimits rateLimits(HttpDataAddress destinationAddress) {
+        return new CustomHttpDataSinkWithPartName.RateLimits(
+                Long.parseLong(destinationAddress.getStringProperty("rateLimitBytesPerSecond", DEFAULT_RATE_LIMIT_BYTES_PER_SECOND)),
+                Long.parseLong(destinationAddress.getStringProperty("rateLimitRequestsPerSecond", DEFAULT_RATE_LIMIT_REQUESTS_PER_SECOND)),
+                Integer.parseInt(destinationAddress.getStringProperty("uploadWeight", DEFAULT_UPLOAD_WEIGHT)));
+    }
+    
+    private CustomHttpDataSinkWithPartName.BatchLimits batchLimits(HttpDataAddress destinationAddress) {
+        return new CustomHttpDataSinkWithPartName.BatchLimits(
+                Integer.parseInt(destinationAddress.getStringProperty("batchMaxFiles", DEFAULT_BATCH_MAX_FILES)),
+                Long.parseLong(destinationAddress.getStringProperty("batchMaxBytes", DEFAULT_BATCH_MAX_BYTES)),
+                Long.parseLong(destinationAddress.getStringProperty("batchLingerMs", DEFAULT_BATCH_LINGER_MS)));
     }
 }
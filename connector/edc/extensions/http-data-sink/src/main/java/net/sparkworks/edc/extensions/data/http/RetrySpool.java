@@ -0,0 +1,299 @@
+package net.sparkworks.edc.extensions.data.http;
+
+import okhttp3.Headers;
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
+import org.eclipse.edc.spi.monitor.Monitor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Durable queue of the parts of one transfer that could not be delivered yet.
+ * <p>
+ * Every spooled part is copied to its own file in the spool directory, named by its sequence number and holding the
+ * part name, the URL and the headers of its upload request, followed by its content. Files are written to a temporary
+ * name and moved into place, so a crash never leaves a partial entry behind. Entries are delivered in the order they
+ * were spooled, and they survive restarts. Because every entry carries its own request, the spool can be delivered
+ * without the transfer that filled it, see {@link SpoolRecovery}.
+ * <p>
+ * The Authorization header is never written to disk: an entry only records that its request had one, and the value
+ * is kept in memory, {@link #authorize(String) handed over} by the transfer using the spool. The spool directory and
+ * its files are only accessible to the connector's user, since they hold the content of the parts.
+ */
+class RetrySpool {
+
+    private static final String SUFFIX = ".spool";
+    private static final int FORMAT_VERSION = 3;
+    private static final String AUTHORIZATION = "Authorization";
+    private static final boolean POSIX = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
+    private final Path directory;
+    private final Monitor monitor;
+    private final Consumer<RetrySpool> onRelease;
+    private final NavigableMap<Long, SpooledPart> entries = new TreeMap<>();
+    private final ReentrantLock drainLock = new ReentrantLock();
+    private final AtomicLong nextSequence = new AtomicLong();
+    private volatile String authorization;
+
+    RetrySpool(Path directory, Monitor monitor, Consumer<RetrySpool> onRelease) {
+        this.directory = directory;
+        this.monitor = monitor;
+        this.onRelease = onRelease;
+        restore();
+    }
+
+    Path directory() {
+        return directory;
+    }
+
+    /**
+     * Sets the value of the Authorization header of the transfer using the spool, null if it sends none. Entries that
+     * were spooled with the header are sent with this value.
+     */
+    void authorize(String authorization) {
+        this.authorization = authorization;
+    }
+
+    String authorization() {
+        return authorization;
+    }
+
+    /**
+     * Whether a part waiting in the spool needs an Authorization header that no transfer has handed over.
+     */
+    synchronized boolean lacksCredentials() {
+        return authorization == null && entries.values().stream().anyMatch(SpooledPart::authorized);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Whether a part whose name matches is waiting in the spool.
+     */
+    synchronized boolean holds(Predicate<String> name) {
+        return entries.values().stream().anyMatch(entry -> name.test(entry.name()));
+    }
+
+    /**
+     * Copies a part into the spool, together with the URL and headers it is uploaded with, less the Authorization
+     * header. The content is copied before the spool is locked, so spooling a large part does not hold up the uploads
+     * that look into the spool meanwhile.
+     */
+    void add(DataSource.Part part, String url, Headers headers) throws IOException {
+        Files.createDirectories(directory, ownerOnly("rwx------"));
+        var sequence = nextSequence.getAndIncrement();
+        var file = directory.resolve(String.format("%020d", sequence) + SUFFIX);
+        var tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+        var authorized = headers.get(AUTHORIZATION) != null;
+        var savedHeaders = headers.newBuilder().removeAll(AUTHORIZATION).build();
+        long contentOffset;
+        // a leftover of a crash would keep its permissions, so it is replaced rather than overwritten
+        Files.deleteIfExists(tmpFile);
+        Files.createFile(tmpFile, ownerOnly("rw-------"));
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile))); var in = part.openStream()) {
+            out.writeInt(FORMAT_VERSION);
+            writeString(out, part.name());
+            writeString(out, url);
+            out.writeInt(savedHeaders.size());
+            for (int i = 0; i < savedHeaders.size(); i++) {
+                writeString(out, savedHeaders.name(i));
+                writeString(out, savedHeaders.value(i));
+            }
+            out.writeBoolean(authorized);
+            contentOffset = out.size();
+            in.transferTo(out);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmpFile);
+            throw e;
+        }
+        synchronized (this) {
+            Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE);
+            entries.put(sequence, new SpooledPart(sequence, part.name(), url, savedHeaders, authorized, file, contentOffset));
+        }
+    }
+
+    /**
+     * Hands the spooled parts to the sender in order, removing every part it reports as done. Stops at the first part
+     * the sender could not deliver. Only one drain runs at a time; a concurrent call returns immediately.
+     *
+     * @param sender sends a part and returns true once it no longer needs to be retried
+     */
+    void drain(Predicate<SpooledPart> sender) {
+        if (!drainLock.tryLock()) {
+            return;
+        }
+        try {
+            SpooledPart entry;
+            while ((entry = peek()) != null && sender.test(entry)) {
+                remove(entry);
+            }
+        } finally {
+            drainLock.unlock();
+        }
+    }
+
+    /**
+     * Called by the transfer that used the spool once it is done with it.
+     */
+    void release() {
+        onRelease.accept(this);
+    }
+
+    /**
+     * Deletes the spool directory. Only an empty spool is deleted, and files that could not be read back at startup are
+     * never deleted, so they keep the directory in place.
+     */
+    synchronized void delete() {
+        if (!entries.isEmpty()) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(directory);
+        } catch (DirectoryNotEmptyException e) {
+            monitor.warning("Keeping retry spool " + directory + ", it still holds unreadable files");
+        } catch (IOException e) {
+            monitor.warning("Failed to delete retry spool " + directory + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized SpooledPart peek() {
+        var first = entries.firstEntry();
+        return first != null ? first.getValue() : null;
+    }
+
+    private synchronized void remove(SpooledPart entry) {
+        entries.remove(entry.sequence());
+        try {
+            Files.deleteIfExists(entry.file());
+        } catch (IOException e) {
+            monitor.warning("Failed to delete spooled file " + entry.file() + ": " + e.getMessage());
+        }
+    }
+
+    private void restore() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (var files = Files.list(directory)) {
+            for (var file : files.sorted().toList()) {
+                var fileName = file.getFileName().toString();
+                if (!fileName.endsWith(SUFFIX)) {
+                    // leftover of an interrupted write
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                try {
+                    var sequence = Long.parseLong(fileName.substring(0, fileName.length() - SUFFIX.length()));
+                    // unreadable files keep their sequence number too, so they are never overwritten
+                    nextSequence.set(sequence + 1);
+                    entries.put(sequence, read(sequence, file));
+                } catch (IOException | RuntimeException e) {
+                    monitor.warning("Ignoring unreadable spooled file " + file + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            monitor.warning("Failed to read retry spool " + directory + ": " + e.getMessage());
+        }
+        if (!entries.isEmpty()) {
+            monitor.info("Restored " + entries.size() + " spooled files from " + directory);
+        }
+    }
+
+    private static SpooledPart read(long sequence, Path file) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            var version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("unsupported format version " + version);
+            }
+            var name = readString(in);
+            var url = readString(in);
+            var headerCount = in.readInt();
+            var headers = new Headers.Builder();
+            long contentOffset = Integer.BYTES * 2L + encodedLength(name) + encodedLength(url);
+            for (int i = 0; i < headerCount; i++) {
+                var headerName = readString(in);
+                var headerValue = readString(in);
+                headers.add(headerName, headerValue);
+                contentOffset += encodedLength(headerName) + encodedLength(headerValue);
+            }
+            var authorized = in.readBoolean();
+            return new SpooledPart(sequence, name, url, headers.build(), authorized, file, contentOffset + 1);
+        }
+    }
+
+    private static FileAttribute<?>[] ownerOnly(String permissions) {
+        return POSIX ? new FileAttribute<?>[] {PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(permissions))} : new FileAttribute<?>[0];
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        var bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long encodedLength(String value) {
+        return Integer.BYTES + value.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Part read back from its spool file, with the URL and headers of its upload request.
+     *
+     * @param authorized whether the request had an Authorization header, which is not among the saved headers
+     */
+    record SpooledPart(long sequence, String name, String url, Headers headers, boolean authorized, Path file, long contentOffset) implements DataSource.Part {
+
+        @Override
+        public long size() {
+            try {
+                return Files.size(file) - contentOffset;
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public InputStream openStream() {
+            try {
+                // a FileInputStream lets the request body read the content straight from the file channel
+                var in = new FileInputStream(file.toFile());
+                try {
+                    in.skipNBytes(contentOffset);
+                } catch (IOException e) {
+                    in.close();
+                    throw e;
+                }
+                return in;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read spooled file " + file, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package net.sparkworks.edc.extensions.data.http;
+
+import net.sparkworks.edc.extensions.upload.GzipRequestBody;
+import net.sparkworks.edc.extensions.upload.PartRequestBody;
+import net.sparkworks.edc.extensions.upload.UploadScheduler;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import org.eclipse.edc.http.spi.EdcHttpClient;
+import org.eclipse.edc.spi.monitor.Monitor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the retry spools of all transfers and delivers the ones that outlived their transfer.
+ * <p>
+ * Every transfer process has its own spool, so spooled parts are never sent by another transfer. A transfer that
+ * finishes with parts still spooled hands its spool back here, and so do the spools found in the spool directory at
+ * startup. Those spools are delivered in the background with the URL and headers saved with every part, each behind
+ * its own {@link CircuitBreaker}, and are deleted once they are empty. When the data plane starts a transfer again
+ * while its spool is still here, the transfer takes the spool back.
+ * <p>
+ * Credentials are not saved in the spool, see {@link RetrySpool}. Parts that were sent with an Authorization header
+ * are delivered with the one the transfer handed to the spool; parts restored at startup that need one wait until
+ * their transfer is started again and takes the spool back.
+ * <p>
+ * Parts delivered here are always sent in a single request, also when their transfer uploads large files in chunks.
+ */
+class SpoolRecovery {
+
+    private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+
+    private final Path spoolDirectory;
+    private final EdcHttpClient httpClient;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService uploadExecutor;
+    private final UploadScheduler.Share uploadShare;
+    private final int circuitFailureThreshold;
+    private final long circuitOpenMillis;
+    private final Monitor monitor;
+    // spools no transfer is using, by directory name
+    private final Map<String, Orphan> orphans = new ConcurrentHashMap<>();
+
+    SpoolRecovery(Path spoolDirectory, EdcHttpClient httpClient, ScheduledExecutorService scheduler, ExecutorService uploadExecutor, UploadScheduler uploadScheduler,
+                  int circuitFailureThreshold, long circuitOpenMillis, Monitor monitor) {
+        this.spoolDirectory = spoolDirectory;
+        this.httpClient = httpClient;
+        this.scheduler = scheduler;
+        this.uploadExecutor = uploadExecutor;
+        this.uploadShare = uploadScheduler.share(1);
+        this.circuitFailureThreshold = circuitFailureThreshold;
+        this.circuitOpenMillis = circuitOpenMillis;
+        this.monitor = monitor;
+    }
+
+    /**
+     * Restores the spools left in the spool directory and starts delivering them, trying every spool again each time
+     * its circuit would let a probe through.
+     */
+    void start() {
+        if (Files.isDirectory(spoolDirectory)) {
+            try (var directories = Files.list(spoolDirectory)) {
+                // spools released before the start are kept, with the credentials their transfer handed over
+                for (var directory : directories.filter(Files::isDirectory).filter(it -> !orphans.containsKey(it.getFileName().toString())).sorted().toList()) {
+                    release(new RetrySpool(directory, monitor, this::release));
+                }
+            } catch (IOException e) {
+                monitor.warning("Failed to read retry spool directory " + spoolDirectory + ": " + e.getMessage());
+            }
+        }
+        scheduler.scheduleWithFixedDelay(() -> uploadExecutor.execute(this::drainAll), 0, circuitOpenMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Spool of a transfer process: the one it left behind if it is still waiting for delivery, otherwise a new one.
+     * The transfer must {@link RetrySpool#release() release} it when it is done.
+     */
+    RetrySpool open(String transferProcessId) {
+        var directory = spoolDirectory.resolve(UUID.nameUUIDFromBytes(transferProcessId.getBytes(StandardCharsets.UTF_8)).toString());
+        var orphan = orphans.remove(directory.getFileName().toString());
+        return orphan != null ? orphan.spool() : new RetrySpool(directory, monitor, this::release);
+    }
+
+    int pendingSpools() {
+        return orphans.size();
+    }
+
+    private void release(RetrySpool spool) {
+        if (spool.size() == 0) {
+            spool.delete();
+            return;
+        }
+        var name = spool.directory().getFileName().toString();
+        monitor.info(spool.size() + " spooled files of " + spool.directory() + " will be delivered in the background");
+        if (spool.lacksCredentials()) {
+            monitor.info("Spooled files of " + spool.directory() + " that need credentials wait until their transfer is started again");
+        }
+        orphans.put(name, new Orphan(spool, new CircuitBreaker("spool " + name, circuitFailureThreshold, circuitOpenMillis, monitor)));
+    }
+
+    private void drainAll() {
+        orphans.forEach(this::drain);
+    }
+
+    private void drain(String name, Orphan orphan) {
+        var spool = orphan.spool();
+        // credentials are checked first, so that a part that cannot be sent does not hold the probe of the circuit
+        spool.drain(part -> {
+            var authorization = spool.authorization();
+            return (!part.authorized() || authorization != null) && orphan.circuitBreaker().allowRequest() && send(part, authorization, orphan.circuitBreaker());
+        });
+        // a transfer may have taken the spool back meanwhile
+        if (orphan.spool().size() == 0 && orphans.remove(name, orphan)) {
+            monitor.info("Delivered all spooled files of " + orphan.spool().directory());
+            orphan.spool().delete();
+        }
+    }
+
+    /**
+     * Sends a spooled part with its saved request and returns true once it no longer needs to be retried.
+     */
+    private boolean send(RetrySpool.SpooledPart part, String authorization, CircuitBreaker circuitBreaker) {
+        RequestBody requestBody = new PartRequestBody(part, OCTET_STREAM);
+        if ("gzip".equals(part.headers().get("Content-Encoding"))) {
+            requestBody = new GzipRequestBody(requestBody);
+        }
+        var requestBuilder = new Request.Builder().url(part.url()).headers(part.headers()).post(requestBody);
+        if (part.authorized()) {
+            requestBuilder.header("Authorization", authorization);
+        }
+        var request = requestBuilder.build();
+
+        try {
+            uploadShare.acquire();
+        } catch (InterruptedException e) {
+            circuitBreaker.cancel();
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        try (var response = httpClient.execute(request)) {
+            var code = response.code();
+            if (!response.isSuccessful() && CustomHttpDataSinkWithPartName.isRetryable(code)) {
+                circuitBreaker.recordFailure();
+                monitor.warning("Failed to deliver spooled file " + part.name() + ", will retry (status: " + code + ")");
+                return false;
+            }
+            circuitBreaker.recordSuccess();
+            if (response.isSuccessful()) {
+                monitor.info("Delivered spooled file " + part.name() + " (status: " + code + ")");
+            } else {
+                monitor.warning("Destination rejected spooled file " + part.name() + " (status: " + code + ")");
+            }
+            return true;
+        } catch (IOException | UncheckedIOException e) {
+            circuitBreaker.recordFailure();
+            monitor.warning("Failed to deliver spooled file " + part.name() + ", will retry: " + e.getMessage());
+            return false;
+        } finally {
+            uploadShare.release();
+        }
+    }
+
+    private record Orphan(RetrySpool spool, CircuitBreaker circuitBreaker) {
+    }
+}
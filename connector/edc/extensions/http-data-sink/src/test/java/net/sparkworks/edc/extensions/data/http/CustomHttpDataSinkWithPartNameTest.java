@@ -0,0 +1,326 @@
+package net.sparkworks.edc.extensions.data.http;
+
+import net.sparkworks.edc.extensions.upload.UploadScheduler;
+import okhttp3.Headers;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.eclipse.edc.connector.dataplane.http.spi.HttpDataAddress;
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
+import org.eclipse.edc.connector.dataplane.spi.pipeline.StreamResult;
+import org.eclipse.edc.http.spi.EdcHttpClient;
+import org.eclipse.edc.spi.monitor.Monitor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CustomHttpDataSinkWithPartNameTest {
+
+    private static final CustomHttpDataSinkWithPartName.BatchLimits NO_BATCHING = new CustomHttpDataSinkWithPartName.BatchLimits(1, 1, 0);
+    private static final CustomHttpDataSinkWithPartName.ChunkLimits NO_CHUNKING = new CustomHttpDataSinkWithPartName.ChunkLimits(0, 1, 1);
+    private static final CustomHttpDataSinkWithPartName.RateLimits NO_RATE_LIMITS = new CustomHttpDataSinkWithPartName.RateLimits(0, 0, 1);
+
+    private final MockWebServer server = new MockWebServer();
+    private final OkHttpClient okHttpClient = new OkHttpClient();
+    private final EdcHttpClient httpClient = mock(EdcHttpClient.class);
+    private final Monitor monitor = mock(Monitor.class);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final UploadScheduler uploadScheduler = new UploadScheduler(8);
+
+    @TempDir
+    private Path spoolDirectory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server.start();
+        when(httpClient.execute(any(Request.class))).thenAnswer(invocation -> okHttpClient.newCall(invocation.getArgument(0)).execute());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+        server.shutdown();
+    }
+
+    @Test
+    void transfer_spoolsPartThatKeepsFailingAndDeliversItWhenDestinationRecovers() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(200));
+        var spoolRecovery = spoolRecovery(10, 100);
+        var sink = sink("token-a", 1, CustomHttpDataSinkWithPartName.UploadOrdering.FILE, new CircuitBreaker("test", 10, 100, monitor), spoolRecovery.open("process-a"));
+
+        var result = sink.transfer(source(part("data/1.csv", "one"))).get(10, TimeUnit.SECONDS);
+
+        assertThat(result.succeeded()).isTrue();
+        // two attempts before the part is spooled, then the drain at the end of the transfer delivers it
+        assertThat(server.getRequestCount()).isEqualTo(3);
+        for (int i = 0; i < 3; i++) {
+            var request = server.takeRequest();
+            assertThat(request.getHeader("X-File-Path")).isEqualTo("data/1.csv");
+            assertThat(request.getBody().readUtf8()).isEqualTo("one");
+        }
+        assertThat(spoolRecovery.pendingSpools()).isZero();
+        try (var spools = Files.list(spoolDirectory)) {
+            assertThat(spools).isEmpty();
+        }
+    }
+
+    @Test
+    void transfer_spoolsPartsWhileCircuitIsOpenAndRecoveryDeliversThemAfterProbe() throws Exception {
+        // the part that opens the circuit of the transfer, then a failed attempt of the recovery and its probe that succeeds
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(200));
+        server.enqueue(new MockResponse().setResponseCode(200));
+        var spoolRecovery = spoolRecovery(1, 300);
+        var sink = sink("token-a", 1, CustomHttpDataSinkWithPartName.UploadOrdering.NONE, new CircuitBreaker("test", 1, 60_000, monitor), spoolRecovery.open("process-a"));
+
+        var result = sink.transfer(source(part("data/1.csv", "one"), part("data/2.csv", "two"))).get(10, TimeUnit.SECONDS);
+
+        assertThat(result.succeeded()).isTrue();
+        // the second part is spooled without a request while the circuit is open
+        assertThat(server.getRequestCount()).isEqualTo(1);
+        assertThat(spoolRecovery.pendingSpools()).isEqualTo(1);
+
+        spoolRecovery.start();
+        await().atMost(Duration.ofSeconds(10)).until(() -> spoolRecovery.pendingSpools() == 0);
+
+        var requests = takeRequests(4);
+        assertThat(requests).extracting(request -> request.getHeader("X-File-Path")).containsExactly("data/1.csv", "data/1.csv", "data/1.csv", "data/2.csv");
+        // the recovery sends the parts with the headers of the transfer that spooled them
+        assertThat(requests).allSatisfy(request -> assertThat(request.getHeader("Authorization")).isEqualTo("Bearer token-a"));
+        assertThat(requests.get(2).getBody().readUtf8()).isEqualTo("one");
+        assertThat(requests.get(3).getBody().readUtf8()).isEqualTo("two");
+    }
+
+    @Test
+    void transfer_neverSendsPartsSpooledByAnotherTransfer() throws Exception {
+        // the destination is down for transfer A only
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode("Bearer token-a".equals(request.getHeader("Authorization")) ? 503 : 200);
+            }
+        });
+        var spoolRecovery = spoolRecovery(10, 100);
+        var retryOnce = new CustomHttpDataSinkWithPartName.RetryPolicy(1, 1, 1);
+        var sinkA = sink("token-a", 1, CustomHttpDataSinkWithPartName.UploadOrdering.NONE, new CircuitBreaker("a", 10, 100, monitor), spoolRecovery.open("process-a"), retryOnce);
+        var sinkB = sink("token-b", 1, CustomHttpDataSinkWithPartName.UploadOrdering.NONE, new CircuitBreaker("b", 10, 100, monitor), spoolRecovery.open("process-b"), retryOnce);
+
+        var resultA = sinkA.transfer(source(part("a/secret.csv", "of a"))).get(10, TimeUnit.SECONDS);
+        var resultB = sinkB.transfer(source(part("b/1.csv", "of b"))).get(10, TimeUnit.SECONDS);
+
+        assertThat(resultA.succeeded()).isTrue();
+        assertThat(resultB.succeeded()).isTrue();
+        var requests = takeRequests(server.getRequestCount());
+        assertThat(requests).filteredOn(request -> "Bearer token-b".equals(request.getHeader("Authorization")))
+                .extracting(request -> request.getHeader("X-File-Path")).containsExactly("b/1.csv");
+        assertThat(spoolRecovery.pendingSpools()).isEqualTo(1);
+    }
+
+    @Test
+    void start_deliversSpoolsLeftBeforeRestart() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200));
+        var spool = spoolRecovery(10, 100).open("process-a");
+        spool.add(part("data/1.csv", "one"), server.url("/upload").toString(), Headers.of("X-File-Path", "data/1.csv"));
+
+        var restarted = spoolRecovery(10, 100);
+        restarted.start();
+        await().atMost(Duration.ofSeconds(10)).until(() -> server.getRequestCount() == 1 && restarted.pendingSpools() == 0);
+
+        var request = server.takeRequest();
+        assertThat(request.getHeader("X-File-Path")).isEqualTo("data/1.csv");
+        assertThat(request.getBody().readUtf8()).isEqualTo("one");
+        try (var spools = Files.list(spoolDirectory)) {
+            assertThat(spools).isEmpty();
+        }
+    }
+
+    @Test
+    void start_keepsSpooledPartsThatNeedCredentialsUntilTheirTransferTakesTheSpoolBack() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200));
+        var spool = spoolRecovery(10, 100).open("process-a");
+        spool.add(part("data/1.csv", "one"), server.url("/upload").toString(), Headers.of("X-File-Path", "data/1.csv", "Authorization", "Bearer token-a"));
+
+        // the credential is not saved, and the spool is only accessible to its owner
+        try (var files = Files.walk(spoolDirectory)) {
+            for (var file : files.filter(Files::isRegularFile).toList()) {
+                assertThat(Files.readString(file, StandardCharsets.ISO_8859_1)).doesNotContain("token-a");
+                assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(file))).isEqualTo("rw-------");
+                assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(file.getParent()))).isEqualTo("rwx------");
+            }
+        }
+
+        var restarted = spoolRecovery(10, 100);
+        restarted.start();
+        Thread.sleep(300);
+        assertThat(server.getRequestCount()).isZero();
+        assertThat(restarted.pendingSpools()).isEqualTo(1);
+
+        // the transfer started again sends the part with its own credentials
+        var sink = sink("token-a", 1, CustomHttpDataSinkWithPartName.UploadOrdering.FILE, new CircuitBreaker("test", 10, 100, monitor), restarted.open("process-a"));
+        var result = sink.transfer(source()).get(10, TimeUnit.SECONDS);
+
+        assertThat(result.succeeded()).isTrue();
+        var request = server.takeRequest(1, TimeUnit.SECONDS);
+        assertThat(request.getHeader("X-File-Path")).isEqualTo("data/1.csv");
+        assertThat(request.getHeader("Authorization")).isEqualTo("Bearer token-a");
+        assertThat(request.getBody().readUtf8()).isEqualTo("one");
+        assertThat(restarted.pendingSpools()).isZero();
+    }
+
+    @Test
+    void transfer_keepsUploadsOfSameFileInOrderWithinInFlightLimit() throws Exception {
+        var events = Collections.synchronizedList(new ArrayList<String>());
+        var running = new AtomicInteger();
+        var maxRunning = new AtomicInteger();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                var upload = request.getHeader("X-File-Path") + " " + request.getBody().readUtf8();
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                events.add("start " + upload);
+                if (upload.equals("a.csv v1")) {
+                    Thread.sleep(300);
+                }
+                events.add("end " + upload);
+                running.decrementAndGet();
+                return new MockResponse().setResponseCode(200);
+            }
+        });
+        var sink = sink("token-a", 2, CustomHttpDataSinkWithPartName.UploadOrdering.FILE, new CircuitBreaker("test", 10, 100, monitor), spoolRecovery(10, 100).open("process-a"));
+
+        var result = sink.transfer(source(part("a.csv", "v1"), part("b.csv", "v1"), part("c.csv", "v1"), part("a.csv", "v2"))).get(10, TimeUnit.SECONDS);
+
+        assertThat(result.succeeded()).isTrue();
+        assertThat(events).hasSize(8);
+        assertThat(maxRunning.get()).isLessThanOrEqualTo(2);
+        // the other files overtake the slow upload, but the next version of its file waits for it
+        assertThat(events.indexOf("end b.csv v1")).isLessThan(events.indexOf("end a.csv v1"));
+        assertThat(events.indexOf("end c.csv v1")).isLessThan(events.indexOf("end a.csv v1"));
+        assertThat(events.indexOf("start a.csv v2")).isGreaterThan(events.indexOf("end a.csv v1"));
+    }
+
+    @Test
+    void circuitBreaker_letsOneProbeThroughOnceOpenDurationHasPassed() throws InterruptedException {
+        var circuitBreaker = new CircuitBreaker("test", 2, 100, monitor);
+
+        circuitBreaker.recordFailure();
+        assertThat(circuitBreaker.allowRequest()).isTrue();
+        circuitBreaker.recordFailure();
+        assertThat(circuitBreaker.allowRequest()).isFalse();
+
+        Thread.sleep(150);
+        assertThat(circuitBreaker.allowRequest()).isTrue();
+        assertThat(circuitBreaker.allowRequest()).isFalse();
+        circuitBreaker.recordFailure();
+        assertThat(circuitBreaker.allowRequest()).isFalse();
+
+        Thread.sleep(150);
+        assertThat(circuitBreaker.allowRequest()).isTrue();
+        circuitBreaker.recordSuccess();
+        assertThat(circuitBreaker.allowRequest()).isTrue();
+        assertThat(circuitBreaker.allowRequest()).isTrue();
+    }
+
+    @Test
+    void circuitBreaker_letsAnotherProbeThroughWhenProbeIsCancelled() throws InterruptedException {
+        var circuitBreaker = new CircuitBreaker("test", 1, 100, monitor);
+        circuitBreaker.recordFailure();
+
+        Thread.sleep(150);
+        assertThat(circuitBreaker.allowRequest()).isTrue();
+        assertThat(circuitBreaker.allowRequest()).isFalse();
+        // the probe was not sent, so it says nothing about the destination
+        circuitBreaker.cancel();
+        assertThat(circuitBreaker.allowRequest()).isTrue();
+        assertThat(circuitBreaker.allowRequest()).isFalse();
+    }
+
+    private SpoolRecovery spoolRecovery(int circuitFailureThreshold, long circuitOpenMillis) {
+        return new SpoolRecovery(spoolDirectory, httpClient, scheduler, executor, uploadScheduler, circuitFailureThreshold, circuitOpenMillis, monitor);
+    }
+
+    private CustomHttpDataSinkWithPartName sink(String authKey, int maxInFlight, CustomHttpDataSinkWithPartName.UploadOrdering ordering, CircuitBreaker circuitBreaker, RetrySpool retrySpool) {
+        return sink(authKey, maxInFlight, ordering, circuitBreaker, retrySpool, new CustomHttpDataSinkWithPartName.RetryPolicy(2, 1, 1));
+    }
+
+    private CustomHttpDataSinkWithPartName sink(String authKey, int maxInFlight, CustomHttpDataSinkWithPartName.UploadOrdering ordering, CircuitBreaker circuitBreaker, RetrySpool retrySpool,
+                                                CustomHttpDataSinkWithPartName.RetryPolicy retryPolicy) {
+        var destination = HttpDataAddress.Builder.newInstance().baseUrl(server.url("/upload").toString()).authKey(authKey).build();
+        return new CustomHttpDataSinkWithPartName(httpClient, destination, monitor, executor, executor, scheduler, maxInFlight, ordering, NO_BATCHING,
+                CustomHttpDataSinkWithPartName.Compression.NONE, retryPolicy, circuitBreaker, retrySpool, NO_CHUNKING, NO_RATE_LIMITS, uploadScheduler);
+    }
+
+    private List<RecordedRequest> takeRequests(int count) throws InterruptedException {
+        var requests = new ArrayList<RecordedRequest>();
+        for (int i = 0; i < count; i++) {
+            requests.add(server.takeRequest(1, TimeUnit.SECONDS));
+        }
+        return requests;
+    }
+
+    private static DataSource source(DataSource.Part... parts) {
+        return new DataSource() {
+            @Override
+            public StreamResult<Stream<Part>> openPartStream() {
+                return StreamResult.success(Stream.of(parts));
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private static DataSource.Part part(String name, String content) {
+        var bytes = content.getBytes(StandardCharsets.UTF_8);
+        return new DataSource.Part() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public long size() {
+                return bytes.length;
+            }
+
+            @Override
+            public InputStream openStream() {
+                return new ByteArrayInputStream(bytes);
+            }
+        };
+    }
+}
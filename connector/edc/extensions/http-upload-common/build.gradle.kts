@@ -0,0 +1,19 @@
+plugins {
+    `java-library`
+    alias(libs.plugins.jmh)
+}
+
+dependencies {
+    // Parts of the data plane that the request bodies stream
+    implementation(libs.edc.data.plane.spi)
+
+    // The request bodies are OkHttp request bodies
+    api(libs.okhttp)
+}
+
+// Benchmarks under src/jmh only run on request, with ./gradlew :edc:extensions:http-upload-common:jmh
+jmh {
+    resultFormat.set("JSON")
+    // allocation rates per operation next to the timings
+    profilers.add("gc")
+}
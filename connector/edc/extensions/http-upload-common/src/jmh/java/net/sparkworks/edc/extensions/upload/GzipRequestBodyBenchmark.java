@@ -0,0 +1,108 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.upload;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the gzip levels of {@link GzipRequestBody} on the payloads the sinks upload: the fastest level, which the
+ * sinks use, against the default level of {@link java.util.zip.Deflater}.
+ * <p>
+ * Each operation compresses 16 MiB on a single thread, so the time per operation is the CPU time spent compressing
+ * it. The compressed size of every payload and level is printed at setup. Run it with
+ * {@code ./gradlew :edc:extensions:http-upload-common:jmh}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GzipRequestBodyBenchmark {
+
+    private static final int PAYLOAD_SIZE = 16 * 1024 * 1024;
+    private static final MediaType OCTET_STREAM = MediaType.get("application/octet-stream");
+
+    /**
+     * {@link java.util.zip.Deflater#BEST_SPEED} and the level {@link java.util.zip.Deflater#DEFAULT_COMPRESSION}
+     * stands for.
+     */
+    @Param({"1", "6"})
+    private int level;
+
+    @Param({"csv", "json"})
+    private String payload;
+
+    private GzipRequestBody body;
+    private Buffer sink;
+
+    @Setup
+    public void setUp() throws IOException {
+        var content = "csv".equals(payload) ? sensorCsv() : sensorJson();
+        body = new GzipRequestBody(RequestBody.create(content, OCTET_STREAM), level);
+        sink = new Buffer();
+        body.writeTo(sink);
+        System.out.printf(Locale.ROOT, "%n%s at level %d: %d -> %d bytes (%.1f%%)%n", payload, level, content.length, sink.size(), 100.0 * sink.size() / content.length);
+        sink.clear();
+    }
+
+    @Benchmark
+    public long compress() throws IOException {
+        body.writeTo(sink);
+        var size = sink.size();
+        sink.clear();
+        return size;
+    }
+
+    private static byte[] sensorCsv() {
+        var random = new Random(42);
+        var csv = new StringBuilder(PAYLOAD_SIZE + 100).append("timestamp,sensor,temperature,humidity\n");
+        for (long timestamp = 1_700_000_000_000L; csv.length() < PAYLOAD_SIZE; timestamp += 1000) {
+            csv.append(String.format(Locale.ROOT, "%d,sensor-%03d,%.2f,%.1f%n",
+                    timestamp, random.nextInt(200), 20 + random.nextGaussian() * 2, 50 + random.nextGaussian() * 5));
+        }
+        return csv.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] sensorJson() {
+        var random = new Random(42);
+        var json = new StringBuilder(PAYLOAD_SIZE + 200).append('[');
+        for (long timestamp = 1_700_000_000_000L; json.length() < PAYLOAD_SIZE; timestamp += 1000) {
+            json.append(String.format(Locale.ROOT, "{\"timestamp\":%d,\"sensor\":\"sensor-%03d\",\"temperature\":%.2f,\"humidity\":%.1f},",
+                    timestamp, random.nextInt(200), 20 + random.nextGaussian() * 2, 50 + random.nextGaussian() * 5));
+        }
+        json.setCharAt(json.length() - 1, ']');
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
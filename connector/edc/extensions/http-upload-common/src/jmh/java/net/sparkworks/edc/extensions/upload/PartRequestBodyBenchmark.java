@@ -0,0 +1,126 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.upload;
+
+import okhttp3.MediaType;
+import okio.BufferedSink;
+import okio.Okio;
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the two ways {@link PartRequestBody} writes a part: the channel path with a pooled direct buffer, taken
+ * for local files, against the buffered stream copy, taken for every other part.
+ * <p>
+ * Both read the same file, which stays in the page cache, into a sink that discards what it is given, so the time per
+ * operation is the cost of the copy itself. Run it with {@code ./gradlew :edc:extensions:http-upload-common:jmh}; the
+ * gc profiler reports the bytes allocated per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PartRequestBodyBenchmark {
+
+    private static final MediaType OCTET_STREAM = MediaType.get("application/octet-stream");
+
+    @Param({"1048576", "268435456"})
+    private int fileSize;
+
+    /**
+     * {@code channel} opens the file as a {@link FileInputStream}, like a local file part, {@code stream} opens it
+     * with {@link Files#newInputStream}, which takes the buffered copy.
+     */
+    @Param({"channel", "stream"})
+    private String path;
+
+    private Path file;
+    private PartRequestBody body;
+    private BufferedSink sink;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = Files.createTempFile("part-request-body", ".bin");
+        var content = new byte[1024 * 1024];
+        new Random(42).nextBytes(content);
+        try (var out = Files.newOutputStream(file)) {
+            for (int written = 0; written < fileSize; written += content.length) {
+                out.write(content, 0, Math.min(content.length, fileSize - written));
+            }
+        }
+        body = new PartRequestBody(new FilePart(file, "channel".equals(path)), OCTET_STREAM);
+        sink = Okio.buffer(Okio.blackhole());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        sink.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public BufferedSink write() throws IOException {
+        body.writeTo(sink);
+        return sink;
+    }
+
+    private record FilePart(Path file, boolean fileInputStream) implements DataSource.Part {
+
+        @Override
+        public String name() {
+            return file.toString();
+        }
+
+        @Override
+        public long size() {
+            try {
+                return Files.size(file);
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public InputStream openStream() {
+            try {
+                return fileInputStream ? new FileInputStream(file.toFile()) : Files.newInputStream(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
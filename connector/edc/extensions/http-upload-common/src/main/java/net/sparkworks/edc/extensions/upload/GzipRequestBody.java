@@ -0,0 +1,89 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.upload;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Request body that gzip-compresses another body while it is written to the socket.
+ * <p>
+ * The compressed size is not known up front, so the body is sent with chunked transfer encoding. The request must
+ * carry a {@code Content-Encoding: gzip} header.
+ * <p>
+ * The body writes the gzip framing itself around a {@link Deflater} it owns, instead of using a
+ * {@link java.util.zip.GZIPOutputStream}: that stream only releases the native memory of its deflater when it is
+ * closed, and closing it would close the socket sink that OkHttp still owns. The deflater is ended as soon as the
+ * body is written, whether or not writing it succeeded.
+ */
+public class GzipRequestBody extends RequestBody {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // magic number, deflate method, no flags, no modification time, no extra flags, unknown OS
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final RequestBody delegate;
+    private final int level;
+
+    /**
+     * Compresses at {@link Deflater#BEST_SPEED}, which keeps most of the size reduction on CSV and JSON at a fraction
+     * of the CPU cost of the default level; {@code GzipRequestBodyBenchmark} compares the two.
+     */
+    public GzipRequestBody(RequestBody delegate) {
+        this(delegate, Deflater.BEST_SPEED);
+    }
+
+    public GzipRequestBody(RequestBody delegate, int level) {
+        this.delegate = delegate;
+        this.level = level;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return delegate.contentType();
+    }
+
+    @Override
+    public long contentLength() {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        var deflater = new Deflater(level, true);
+        try {
+            sink.write(GZIP_HEADER);
+            var crc = new CRC32();
+            // finish, not close: closing would close the socket sink that OkHttp still owns
+            var deflated = new DeflaterOutputStream(sink.outputStream(), deflater, BUFFER_SIZE);
+            var gzipSink = Okio.buffer(Okio.sink(new CheckedOutputStream(deflated, crc)));
+            delegate.writeTo(gzipSink);
+            gzipSink.emit();
+            deflated.finish();
+            sink.writeIntLe((int) crc.getValue());
+            sink.writeIntLe((int) deflater.getBytesRead());
+        } finally {
+            deflater.end();
+        }
+    }
+}
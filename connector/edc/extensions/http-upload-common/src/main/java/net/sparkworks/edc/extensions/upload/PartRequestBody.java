@@ -0,0 +1,122 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.upload;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Request body that streams a part to the socket instead of reading it into memory first.
+ * <p>
+ * When the size of the part is known, it is sent with a Content-Length header and exactly that many bytes are
+ * written; otherwise the body is sent with chunked transfer encoding. The part is opened again every time the body
+ * is written, so OkHttp can replay it when it retries a request on a new connection.
+ * <p>
+ * Parts backed by a local file, whose streams are {@link FileInputStream}s, are read from the file channel into a
+ * pooled direct buffer and written from there into the buffers of the socket sink. This skips the temporary native
+ * copy and the heap array of the stream copy. A true {@link FileChannel#transferTo} to the socket is not possible,
+ * because OkHttp owns the socket and may wrap it in TLS.
+ */
+public class PartRequestBody extends RequestBody {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // direct memory is only freed by the garbage collector, so the buffers are kept for reuse rather than per thread,
+    // which would allocate one for every virtual thread
+    private static final BlockingQueue<ByteBuffer> DIRECT_BUFFERS = new ArrayBlockingQueue<>(64);
+
+    private final DataSource.Part part;
+    private final MediaType contentType;
+    private final long contentLength;
+
+    public PartRequestBody(DataSource.Part part, MediaType contentType) {
+        this.part = part;
+        this.contentType = contentType;
+        this.contentLength = part.size();
+    }
+
+    @Override
+    public MediaType contentType() {
+        return contentType;
+    }
+
+    @Override
+    public long contentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        try (var inputStream = part.openStream()) {
+            if (inputStream instanceof FileInputStream fileInputStream) {
+                transferFile(fileInputStream.getChannel(), sink);
+                return;
+            }
+            var buffer = new byte[BUFFER_SIZE];
+            var remaining = contentLength >= 0 ? contentLength : Long.MAX_VALUE;
+            while (remaining > 0) {
+                var read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    break;
+                }
+                sink.write(buffer, 0, read);
+                remaining -= read;
+            }
+            checkComplete(remaining);
+        }
+    }
+
+    /**
+     * Copies the file from the current position of its channel, which is where the stream of the part starts.
+     */
+    private void transferFile(FileChannel channel, BufferedSink sink) throws IOException {
+        var buffer = DIRECT_BUFFERS.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        try {
+            var remaining = contentLength >= 0 ? contentLength : Long.MAX_VALUE;
+            while (remaining > 0) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), remaining));
+                var read = channel.read(buffer);
+                if (read == -1) {
+                    break;
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    sink.write(buffer);
+                }
+                remaining -= read;
+            }
+            checkComplete(remaining);
+        } finally {
+            DIRECT_BUFFERS.offer(buffer);
+        }
+    }
+
+    private void checkComplete(long remaining) throws IOException {
+        if (contentLength >= 0 && remaining > 0) {
+            throw new IOException("Part " + part.name() + " ended " + remaining + " bytes before its size of " + contentLength + " bytes");
+        }
+    }
+}
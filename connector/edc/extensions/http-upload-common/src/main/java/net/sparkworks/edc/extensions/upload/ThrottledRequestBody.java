@@ -0,0 +1,82 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.upload;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Request body that writes another body no faster than the byte rate of a {@link TokenBucket}.
+ * <p>
+ * It wraps the body as it goes to the socket, after any compression, so the rate applies to the bytes on the wire.
+ */
+public class ThrottledRequestBody extends RequestBody {
+
+    private final RequestBody delegate;
+    private final TokenBucket bytesPerSecond;
+
+    public ThrottledRequestBody(RequestBody delegate, TokenBucket bytesPerSecond) {
+        this.delegate = delegate;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return delegate.contentType();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        return delegate.contentLength();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        // not closed: that would close the socket sink that OkHttp still owns
+        var throttledSink = Okio.buffer(Okio.sink(new ThrottledOutputStream(sink.outputStream())));
+        delegate.writeTo(throttledSink);
+        throttledSink.emit();
+    }
+
+    private class ThrottledOutputStream extends FilterOutputStream {
+
+        ThrottledOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                bytesPerSecond.acquire(len);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling the request body");
+            }
+            out.write(b, off, len);
+        }
+    }
+}
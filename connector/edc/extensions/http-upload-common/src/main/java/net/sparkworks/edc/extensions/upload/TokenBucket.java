@@ -0,0 +1,53 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.upload;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket that paces a transfer to a number of permits per second, such as requests or bytes.
+ * <p>
+ * The bucket holds at most one second worth of permits, so an idle transfer may burst up to its rate and no further.
+ * A caller asking for more permits than are available takes them anyway and sleeps until the bucket would have
+ * refilled, so large requests are not starved by small ones and later callers queue up behind the debt.
+ */
+public class TokenBucket {
+
+    private final long permitsPerSecond;
+    private double permits;
+    private long refilledAt = System.nanoTime();
+
+    public TokenBucket(long permitsPerSecond) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.permits = permitsPerSecond;
+    }
+
+    /**
+     * Takes permits from the bucket, sleeping as long as needed to stay within the rate.
+     */
+    public void acquire(long count) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            var now = System.nanoTime();
+            permits = Math.min(permitsPerSecond, permits + (now - refilledAt) * permitsPerSecond / 1e9);
+            refilledAt = now;
+            permits -= count;
+            waitNanos = permits >= 0 ? 0 : (long) (-permits * 1e9 / permitsPerSecond);
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.upload;
+
+import org.eclipse.edc.spi.monitor.Monitor;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors that run the transfers of a sink, one thread per running transfer.
+ */
+public final class TransferExecutors {
+
+    private TransferExecutors() {
+    }
+
+    /**
+     * Creates the executor for the transfers of a sink. The number of transfers is not capped; upload concurrency is
+     * bounded by the {@link UploadScheduler}. Streaming transfers spend their life waiting on the source, so with many
+     * subscriptions virtual threads are much cheaper than platform threads.
+     *
+     * @param threads {@code virtual} for a virtual thread per transfer, falling back to platform threads before
+     *                Java 21, anything else for a pool of platform threads
+     * @param threadNamePrefix prefix of the names of the transfer threads, followed by a sequence number
+     */
+    public static ExecutorService create(String threads, String threadNamePrefix, Monitor monitor) {
+        var executor = "virtual".equalsIgnoreCase(threads) ? virtualThreadExecutor(threadNamePrefix, monitor) : null;
+        if (executor != null) {
+            return executor;
+        }
+        var threadCount = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            var thread = new Thread(runnable, threadNamePrefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Executor that starts a virtual thread per transfer, or null if the JVM has no virtual threads. The API is looked
+     * up reflectively so the extensions still build and run on Java 17.
+     */
+    private static ExecutorService virtualThreadExecutor(String threadNamePrefix, Monitor monitor) {
+        try {
+            var builderType = Class.forName("java.lang.Thread$Builder");
+            var builder = builderType.getMethod("name", String.class, long.class).invoke(Thread.class.getMethod("ofVirtual").invoke(null), threadNamePrefix, 1L);
+            var threadFactory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            var executor = (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, threadFactory);
+            monitor.info("Transfers run on virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            monitor.warning("Virtual transfer threads need Java 21 or later, using platform threads instead");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.upload;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shares a fixed number of concurrent upload requests between all transfers of a sink, in proportion to their weight.
+ * <p>
+ * Every transfer gets its own {@link Share}. When a slot frees up, it goes to the waiting share with the fewest
+ * running uploads per unit of weight, and among equals to the one that was served longest ago. A transfer with
+ * nothing in flight therefore always gets the next slot, so small transfers keep a low latency while a bulk transfer
+ * uses the rest of the capacity.
+ * <p>
+ * Waiting uses a {@link ReentrantLock} rather than a monitor, so virtual transfer threads waiting for a slot do not
+ * pin their carrier thread.
+ */
+public class UploadScheduler {
+
+    private final int capacity;
+    private final Set<Share> waitingShares = new LinkedHashSet<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private int running;
+    private long grants;
+
+    public UploadScheduler(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public Share share(int weight) {
+        return new Share(weight);
+    }
+
+    private boolean isNext(Share share) {
+        if (running >= capacity) {
+            return false;
+        }
+        for (var other : waitingShares) {
+            // compare running / weight without dividing
+            var order = Long.compare((long) other.running * share.weight, (long) share.running * other.weight);
+            if (order < 0 || order == 0 && other.lastGrant < share.lastGrant) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Upload concurrency of one transfer.
+     */
+    public class Share {
+
+        private final int weight;
+        private int running;
+        private int waiting;
+        private long lastGrant;
+
+        private Share(int weight) {
+            this.weight = weight;
+        }
+
+        /**
+         * Waits for an upload slot. Every slot acquired must be given back with {@link #release()}.
+         */
+        public void acquire() throws InterruptedException {
+            lock.lock();
+            try {
+                waiting++;
+                waitingShares.add(this);
+                try {
+                    while (!isNext(this)) {
+                        changed.await();
+                    }
+                } catch (InterruptedException e) {
+                    // another share may be next now
+                    changed.signalAll();
+                    throw e;
+                } finally {
+                    if (--waiting == 0) {
+                        waitingShares.remove(this);
+                    }
+                }
+                running++;
+                UploadScheduler.this.running++;
+                lastGrant = ++grants;
+                if (UploadScheduler.this.running < capacity) {
+                    changed.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void release() {
+            lock.lock();
+            try {
+                running--;
+                UploadScheduler.this.running--;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -9,3 +9,8 @@ dependencies {
     implementation(libs.edc.data.plane.spi)
     implementation(libs.edc.runtime.metamodel)
 }
+
+tasks.test {
+    // FileHasherTest hashes a 4 GiB file and must show that this does not need a heap of that size
+    maxHeapSize = "256m"
+}
@@ -0,0 +1,118 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.source.local;
+
+import org.eclipse.edc.spi.monitor.Monitor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Walks a directory tree in parallel and hands out the regular files it finds.
+ * <p>
+ * Every directory is listed by its own fork-join task, and subdirectories are forked so that wide and deep
+ * trees are listed by all threads of the pool. Files are handed over through a bounded queue: when the
+ * consumer falls behind, the walk pauses instead of accumulating the whole tree in memory.
+ */
+class BackfillScanner implements Closeable {
+
+    private static final int QUEUE_CAPACITY = 10_000;
+
+    private final Path root;
+    private final Monitor monitor;
+    private final ForkJoinPool pool;
+    private final BlockingQueue<Path> files = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong scannedFiles = new AtomicLong();
+    private ForkJoinTask<Void> walk;
+
+    BackfillScanner(Path root, int parallelism, Monitor monitor) {
+        this.root = root;
+        this.monitor = monitor;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    void start() {
+        walk = pool.submit(new DirectoryScan(root));
+    }
+
+    /**
+     * Next file found by the walk, or null if none is available within the timeout.
+     */
+    Path poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return files.poll(timeout, unit);
+    }
+
+    /**
+     * Whether the walk has completed and every file it found has been handed out.
+     */
+    boolean isFinished() {
+        return walk != null && walk.isDone() && files.isEmpty();
+    }
+
+    long scannedFiles() {
+        return scannedFiles.get();
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private class DirectoryScan extends RecursiveAction {
+
+        private final Path directory;
+
+        DirectoryScan(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryScan> subdirectories = new ArrayList<>();
+            try (var entries = Files.newDirectoryStream(directory)) {
+                for (var entry : entries) {
+                    var attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isDirectory()) {
+                        var scan = new DirectoryScan(entry);
+                        scan.fork();
+                        subdirectories.add(scan);
+                    } else if (attributes.isRegularFile()) {
+                        files.put(entry);
+                        scannedFiles.incrementAndGet();
+                    }
+                }
+            } catch (IOException e) {
+                monitor.warning("Failed to scan directory: " + directory + " - " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            subdirectories.forEach(ForkJoinTask::join);
+        }
+    }
+}
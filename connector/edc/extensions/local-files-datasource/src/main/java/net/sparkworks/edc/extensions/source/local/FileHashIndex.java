@@ -0,0 +1,354 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.source.local;
+
+import org.eclipse.edc.spi.monitor.Monitor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Persistent set of SHA-256 digests of files that have already been sent.
+ * <p>
+ * Digests are kept as raw 32-byte values in an open-addressing table backed by primitive arrays,
+ * so every entry costs a fixed number of bytes on the heap. Each new digest is appended to a log file
+ * together with the time it was recorded; the log is replayed on startup so deduplication survives restarts.
+ * Entries older than the retention window are dropped, and when the index grows beyond its size cap the
+ * oldest entries are evicted. Both happen during compaction, which rewrites the log with the live entries only.
+ */
+class FileHashIndex implements Closeable {
+
+    private static final int DIGEST_LENGTH = 32;
+    private static final int WORDS_PER_DIGEST = DIGEST_LENGTH / Long.BYTES;
+    private static final int RECORD_SIZE = DIGEST_LENGTH + Long.BYTES;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final Duration MAX_COMPACTION_INTERVAL = Duration.ofHours(1);
+
+    private final Path logFile;
+    private final Duration retention;
+    private final int maxEntries;
+    private final Monitor monitor;
+    private final Clock clock;
+    private final Consumer<FileHashIndex> onClose;
+    private final ByteBuffer recordBuffer = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.BIG_ENDIAN);
+
+    private FileChannel log;
+    private long[] digests;
+    private long[] timestamps;
+    private int size;
+    private long nextCompaction;
+    private boolean closed;
+
+    FileHashIndex(Path logFile, Duration retention, int maxEntries, Monitor monitor) throws IOException {
+        this(logFile, retention, maxEntries, monitor, Clock.systemUTC(), index -> { });
+    }
+
+    /**
+     * Opens the index stored in a log file.
+     *
+     * @param onClose called once when the index is closed, to hand the log file back to its owner
+     */
+    FileHashIndex(Path logFile, Duration retention, int maxEntries, Monitor monitor, Clock clock, Consumer<FileHashIndex> onClose) throws IOException {
+        this.logFile = logFile;
+        this.retention = retention;
+        this.maxEntries = maxEntries;
+        this.monitor = monitor;
+        this.clock = clock;
+        this.onClose = onClose;
+        allocate(INITIAL_CAPACITY);
+
+        Files.createDirectories(logFile.toAbsolutePath().getParent());
+        load();
+        compact();
+        monitor.info("Loaded " + size + " file hashes from " + logFile);
+    }
+
+    /**
+     * Records a digest unless it is already present.
+     *
+     * @param digest the raw 32-byte SHA-256 digest
+     * @return true if the digest was not known before, false if it is a duplicate
+     */
+    synchronized boolean add(byte[] digest) {
+        if (digest.length != DIGEST_LENGTH) {
+            throw new IllegalArgumentException("Expected a " + DIGEST_LENGTH + "-byte digest but got " + digest.length + " bytes");
+        }
+        var words = toWords(digest);
+        if (find(words) >= 0) {
+            return false;
+        }
+
+        var now = clock.millis();
+        insert(words, now);
+        append(digest, now);
+
+        // a closed index no longer owns its log, which may already have been handed back and deleted
+        if (!closed && (size > maxEntries || now >= nextCompaction)) {
+            compact();
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether a digest is present without recording it.
+     */
+    synchronized boolean contains(byte[] digest) {
+        return digest.length == DIGEST_LENGTH && find(toWords(digest)) >= 0;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (log != null) {
+                log.close();
+                log = null;
+            }
+        }
+        onClose.accept(this);
+    }
+
+    /**
+     * Replays the log file into the in-memory table. A truncated trailing record, left by a crash
+     * in the middle of a write, is ignored and overwritten by the next compaction.
+     */
+    private void load() throws IOException {
+        if (!Files.exists(logFile)) {
+            return;
+        }
+        try (var channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            var buffer = ByteBuffer.allocate(RECORD_SIZE * 4096).order(ByteOrder.BIG_ENDIAN);
+            var digest = new long[WORDS_PER_DIGEST];
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.remaining() >= RECORD_SIZE) {
+                    for (int i = 0; i < WORDS_PER_DIGEST; i++) {
+                        digest[i] = buffer.getLong();
+                    }
+                    var timestamp = buffer.getLong();
+                    var slot = find(digest);
+                    if (slot >= 0) {
+                        timestamps[slot] = Math.max(timestamps[slot], timestamp);
+                    } else {
+                        insert(digest, timestamp);
+                    }
+                }
+                buffer.compact();
+            }
+        }
+    }
+
+    /**
+     * Drops expired entries, evicts the oldest entries beyond the size cap and rewrites the log
+     * with the remaining entries. The new log replaces the old one atomically.
+     */
+    private void compact() {
+        var now = clock.millis();
+        var expiredBefore = now - retention.toMillis();
+
+        // evict down to 90% of the cap so that compaction is not triggered again on the next insert;
+        // entries sharing the timestamp of the newest evicted entry are evicted only up to the quota
+        var evictBefore = Long.MIN_VALUE;
+        var evictAtCutoff = 0;
+        if (size > maxEntries) {
+            var live = new long[size];
+            var count = 0;
+            for (long timestamp : timestamps) {
+                if (timestamp != 0) {
+                    live[count++] = timestamp;
+                }
+            }
+            Arrays.sort(live, 0, count);
+            var toEvict = count - (int) (maxEntries * 0.9);
+            evictBefore = live[toEvict - 1];
+            var index = toEvict - 1;
+            while (index >= 0 && live[index] == evictBefore) {
+                evictAtCutoff++;
+                index--;
+            }
+        }
+
+        var oldDigests = digests;
+        var oldTimestamps = timestamps;
+        var oldSize = size;
+        allocate(tableCapacityFor(Math.min(size, maxEntries)));
+
+        var tmpFile = logFile.resolveSibling(logFile.getFileName() + ".tmp");
+        try (var out = FileChannel.open(tmpFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            var buffer = ByteBuffer.allocate(RECORD_SIZE * 4096).order(ByteOrder.BIG_ENDIAN);
+            var words = new long[WORDS_PER_DIGEST];
+            for (int slot = 0; slot < oldTimestamps.length; slot++) {
+                var timestamp = oldTimestamps[slot];
+                if (timestamp == 0 || timestamp <= expiredBefore || timestamp < evictBefore) {
+                    continue;
+                }
+                if (timestamp == evictBefore && evictAtCutoff > 0) {
+                    evictAtCutoff--;
+                    continue;
+                }
+                System.arraycopy(oldDigests, slot * WORDS_PER_DIGEST, words, 0, WORDS_PER_DIGEST);
+                insert(words, timestamp);
+                for (long word : words) {
+                    buffer.putLong(word);
+                }
+                buffer.putLong(timestamp);
+                if (!buffer.hasRemaining()) {
+                    writeFully(out, buffer);
+                }
+            }
+            writeFully(out, buffer);
+            out.force(true);
+
+            if (log != null) {
+                log.close();
+            }
+            Files.move(tmpFile, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            monitor.severe("Failed to compact file hash index " + logFile + ", keeping the existing log", e);
+            digests = oldDigests;
+            timestamps = oldTimestamps;
+            size = oldSize;
+            reopenLog();
+        }
+
+        nextCompaction = now + Math.min(retention.toMillis(), MAX_COMPACTION_INTERVAL.toMillis());
+        if (oldSize != size) {
+            monitor.debug("Compacted file hash index " + logFile + ": " + oldSize + " -> " + size + " entries");
+        }
+    }
+
+    private void append(byte[] digest, long timestamp) {
+        if (log == null) {
+            return;
+        }
+        recordBuffer.clear();
+        recordBuffer.put(digest).putLong(timestamp);
+        try {
+            writeFully(log, recordBuffer);
+        } catch (IOException e) {
+            monitor.warning("Failed to persist file hash to " + logFile + ": " + e.getMessage());
+        }
+    }
+
+    private void reopenLog() {
+        try {
+            if (log == null || !log.isOpen()) {
+                log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+        } catch (IOException e) {
+            monitor.severe("Failed to open file hash log " + logFile + ", hashes will not be persisted", e);
+            log = null;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private int find(long[] words) {
+        var mask = timestamps.length - 1;
+        var slot = (int) (words[0] ^ (words[0] >>> 32)) & mask;
+        while (timestamps[slot] != 0) {
+            if (matches(slot, words)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void insert(long[] words, long timestamp) {
+        if ((size + 1) * 2 > timestamps.length) {
+            grow();
+        }
+        var mask = timestamps.length - 1;
+        var slot = (int) (words[0] ^ (words[0] >>> 32)) & mask;
+        while (timestamps[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        System.arraycopy(words, 0, digests, slot * WORDS_PER_DIGEST, WORDS_PER_DIGEST);
+        timestamps[slot] = timestamp;
+        size++;
+    }
+
+    private boolean matches(int slot, long[] words) {
+        var offset = slot * WORDS_PER_DIGEST;
+        for (int i = 0; i < WORDS_PER_DIGEST; i++) {
+            if (digests[offset + i] != words[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void grow() {
+        var oldDigests = digests;
+        var oldTimestamps = timestamps;
+        allocate(oldTimestamps.length * 2);
+        var words = new long[WORDS_PER_DIGEST];
+        for (int slot = 0; slot < oldTimestamps.length; slot++) {
+            if (oldTimestamps[slot] != 0) {
+                System.arraycopy(oldDigests, slot * WORDS_PER_DIGEST, words, 0, WORDS_PER_DIGEST);
+                insert(words, oldTimestamps[slot]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        digests = new long[capacity * WORDS_PER_DIGEST];
+        timestamps = new long[capacity];
+        size = 0;
+    }
+
+    private static int tableCapacityFor(int entries) {
+        var capacity = INITIAL_CAPACITY;
+        while (capacity < entries * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static long[] toWords(byte[] digest) {
+        var buffer = ByteBuffer.wrap(digest).order(ByteOrder.BIG_ENDIAN);
+        var words = new long[WORDS_PER_DIGEST];
+        for (int i = 0; i < WORDS_PER_DIGEST; i++) {
+            words[i] = buffer.getLong();
+        }
+        return words;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.source.local;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Computes SHA-256 digests of files by reading them in fixed-size chunks.
+ * The read buffer is a direct buffer allocated once and reused for every file, so
+ * hashing a file never needs more memory than the buffer, whatever the file size.
+ * Instances are not thread-safe; use one instance per hashing thread.
+ */
+final class FileHasher {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final MessageDigest digest;
+    private final ByteBuffer buffer;
+
+    FileHasher() {
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    /**
+     * Computes the SHA-256 digest of a file's contents.
+     *
+     * @param path the path to the file
+     * @return the raw 32-byte digest
+     * @throws IOException if the file cannot be read
+     */
+    byte[] hash(Path path) throws IOException {
+        digest.reset();
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Hexadecimal representation of a digest, used for logging.
+     */
+    static String toHex(byte[] hash) {
+        return HEX.formatHex(hash);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.source.local;
+
+import org.eclipse.edc.spi.monitor.Monitor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Bounded pool of workers that hash files in parallel.
+ * <p>
+ * Files are submitted in the order their writes completed, and results are handed out in that same order
+ * for files of the same directory; files of different directories do not wait for each other.
+ * At most {@code maxPending} files can be queued or hashing at any time: {@link #submit(Path)} blocks
+ * until a worker frees a slot, so the watch loop cannot run ahead of the workers.
+ */
+class FileHashingPool implements Closeable {
+
+    private static final int PENDING_PER_WORKER = 4;
+
+    private final ExecutorService executor;
+    private final ThreadLocal<FileHasher> fileHashers = ThreadLocal.withInitial(FileHasher::new);
+    private final Semaphore pendingSlots;
+    private final Semaphore completions = new Semaphore(0);
+    private final Map<Path, Deque<CompletableFuture<HashedFile>>> pendingByDirectory = new LinkedHashMap<>();
+    private final Monitor monitor;
+    private int pending;
+
+    FileHashingPool(int workers, Monitor monitor) {
+        var threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(workers, runnable -> {
+            var thread = new Thread(runnable, "local-files-hasher-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pendingSlots = new Semaphore(workers * PENDING_PER_WORKER);
+        this.monitor = monitor;
+    }
+
+    /**
+     * Queues a file for hashing, blocking while the pool is at capacity.
+     */
+    void submit(Path file) throws InterruptedException {
+        pendingSlots.acquire();
+        var future = CompletableFuture.supplyAsync(() -> hash(file), executor)
+                .whenComplete((result, error) -> {
+                    pendingSlots.release();
+                    completions.release();
+                });
+        pendingByDirectory.computeIfAbsent(file.getParent(), dir -> new ArrayDeque<>()).add(future);
+        pending++;
+    }
+
+    /**
+     * Hands out hashed files whose predecessors in the same directory have been handed out already.
+     */
+    void drainCompleted(Consumer<HashedFile> consumer) {
+        var directories = pendingByDirectory.values().iterator();
+        while (directories.hasNext()) {
+            var queue = directories.next();
+            while (!queue.isEmpty() && queue.peek().isDone()) {
+                pending--;
+                consumer.accept(queue.poll().join());
+            }
+            if (queue.isEmpty()) {
+                directories.remove();
+            }
+        }
+    }
+
+    /**
+     * Waits until at least one file finished hashing since the last call, or the timeout elapses.
+     */
+    void awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        if (completions.tryAcquire(timeout, unit)) {
+            completions.drainPermits();
+        }
+    }
+
+    boolean hasPending() {
+        return pending > 0;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private HashedFile hash(Path file) {
+        try {
+            return new HashedFile(file, fileHashers.get().hash(file));
+        } catch (IOException e) {
+            monitor.severe("Error computing file hash for " + file + ": " + e.getMessage(), e);
+            return new HashedFile(file, null);
+        }
+    }
+
+    /**
+     * A file and its SHA-256 digest, or a null digest if the file could not be read.
+     */
+    record HashedFile(Path path, byte[] hash) {
+    }
+}
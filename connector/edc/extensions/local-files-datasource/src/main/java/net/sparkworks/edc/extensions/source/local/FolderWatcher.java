@@ -0,0 +1,695 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.source.local;
+
+import net.sparkworks.edc.extensions.source.local.FileHashingPool.HashedFile;
+import org.eclipse.edc.spi.monitor.Monitor;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Watches a directory tree and hashes the files written to it once, on behalf of every LocalFiles transfer over it.
+ * <p>
+ * A single watch service, set of watch keys and hashing pool serve all {@link Subscription}s of the folder. Hashed
+ * files are appended to a bounded in-memory log, and every subscription reads the log from its own cursor and
+ * deduplicates against its own hash index. Publishing never waits for a subscription: one that falls a full log
+ * behind is detached from the log, skips to its head and is resynced with a backfill of the tree instead. Its hash
+ * index filters out the files it had already sent, so a stalled sink neither holds up the other transfers nor misses
+ * files.
+ * <p>
+ * Subscriptions that ask for a backfill are served by a backfill thread that scans and hashes the tree once for all
+ * subscriptions that asked at about the same time, and hands the files to each of them through a small queue of its
+ * own. Live events keep flowing while a backfill runs.
+ * <p>
+ * The watcher is shared by the subscriptions and closes itself when the last one is closed. Locks are
+ * {@link ReentrantLock}s so that transfers running on virtual threads do not pin their carrier while they wait.
+ */
+class FolderWatcher {
+
+    private static final int LOG_CAPACITY = 4096;
+    private static final int BACKFILL_QUEUE_CAPACITY = 256;
+    private static final int MAX_BACKFILL_SUBMITS_PER_ROUND = 64;
+    // transfers started together, e.g. after a restart, share one backfill scan
+    private static final Duration BACKFILL_GATHER_DELAY = Duration.ofMillis(500);
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(5);
+
+    private final Path root;
+    private final Duration quietPeriod;
+    private final int hashWorkers;
+    private final Monitor monitor;
+    private final Consumer<FolderWatcher> onClose;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchKeyToPath = new HashMap<>();
+    private final Set<Path> watchedDirectories = new HashSet<>();
+    private final FileHashingPool hashingPool;
+    private final Thread pipelineThread;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final HashedFile[] log = new HashedFile[LOG_CAPACITY];
+    private final Set<Subscription> subscriptions = new LinkedHashSet<>();
+    private final List<Subscription> backfillRequests = new ArrayList<>();
+    private Thread backfillThread;
+    private long head;
+    private boolean stopped;
+
+    /**
+     * Registers the watches on the whole tree and starts watching.
+     *
+     * @param hashWorkers threads hashing files, for the watch and for every backfill
+     * @param onClose called once the watcher has stopped, so that new transfers get a new watcher
+     */
+    FolderWatcher(Path root, Duration quietPeriod, int hashWorkers, Monitor monitor, Consumer<FolderWatcher> onClose) throws IOException {
+        this.root = root;
+        this.quietPeriod = quietPeriod;
+        this.hashWorkers = hashWorkers;
+        this.monitor = monitor;
+        this.onClose = onClose;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.hashingPool = new FileHashingPool(hashWorkers, monitor);
+
+        monitor.info("Watching " + root.toAbsolutePath() + " recursively (including subdirectories), shared by all LocalFiles transfers over it");
+        monitor.info("Files are processed once unchanged for " + quietPeriod.toMillis() + " ms");
+        monitor.info("Hashing with " + hashWorkers + " worker(s)");
+
+        // Register the root directory and all subdirectories recursively
+        try {
+            registerDirectoryRecursively(root);
+        } catch (IOException | RuntimeException e) {
+            watchService.close();
+            hashingPool.close();
+            throw e;
+        }
+        monitor.info("Registered " + watchKeyToPath.size() + " directories for monitoring");
+
+        pipelineThread = new Thread(new EventPipeline(), "local-files-pipeline-" + root.getFileName());
+        pipelineThread.setDaemon(true);
+        pipelineThread.start();
+    }
+
+    /**
+     * Adds a subscription that receives every file hashed from now on and, if asked for, the files already in the tree.
+     *
+     * @return the subscription, or null if the watcher has stopped and a new one must be created
+     */
+    Subscription subscribe(boolean backfill) {
+        lock.lock();
+        try {
+            if (stopped) {
+                return null;
+            }
+            var subscription = new Subscription(head);
+            subscriptions.add(subscription);
+            if (backfill) {
+                requestBackfill(subscription);
+            }
+            monitor.info("Subscribed a transfer to " + root + " (" + subscriptions.size() + " subscribed)");
+            return subscription;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a subscription for the next backfill round, starting the backfill thread if none is running. Must be
+     * called with the lock held.
+     */
+    private void requestBackfill(Subscription subscription) {
+        if (backfillRequests.contains(subscription)) {
+            return;
+        }
+        backfillRequests.add(subscription);
+        // a backfill waiting for a full queue may give way to the new request
+        changed.signalAll();
+        if (backfillThread == null) {
+            backfillThread = new Thread(this::runBackfills, "local-files-backfill-" + root.getFileName());
+            backfillThread.setDaemon(true);
+            backfillThread.start();
+        }
+    }
+
+    private void unsubscribe(Subscription subscription) {
+        lock.lock();
+        try {
+            // a watcher whose pipeline failed has closed itself already
+            if (!subscriptions.remove(subscription) || !subscriptions.isEmpty() || stopped) {
+                changed.signalAll();
+                return;
+            }
+            stopped = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        close();
+    }
+
+    /**
+     * Stops the pipeline and backfill threads and releases the watches.
+     */
+    private void close() {
+        onClose.accept(this);
+        try {
+            // a blocked take() fails with ClosedWatchServiceException, any other wait is interrupted
+            watchService.close();
+        } catch (IOException e) {
+            monitor.warning("Failed to close the watch service of " + root + ": " + e.getMessage());
+        }
+        Thread backfill;
+        lock.lock();
+        try {
+            backfill = backfillThread;
+        } finally {
+            lock.unlock();
+        }
+        for (var thread : new Thread[] {pipelineThread, backfill}) {
+            if (thread != null && thread != Thread.currentThread()) {
+                thread.interrupt();
+                try {
+                    thread.join(CLOSE_TIMEOUT.toMillis());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        hashingPool.close();
+        monitor.debug("Stopped watching " + root);
+    }
+
+    /**
+     * Appends a hashed file to the log. Subscriptions that have not read the entry it overwrites are resynced.
+     */
+    private void publish(HashedFile hashedFile) {
+        if (hashedFile.hash() == null) {
+            // If hash computation failed, skip this file
+            monitor.warning("Skipping file due to hash computation failure: " + hashedFile.path());
+            return;
+        }
+        lock.lock();
+        try {
+            for (var subscription : subscriptions) {
+                if (head - subscription.cursor >= LOG_CAPACITY) {
+                    resync(subscription);
+                }
+            }
+            log[(int) (head % LOG_CAPACITY)] = hashedFile;
+            head++;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Detaches a subscription that fell a full log behind: it skips the files left in the log, which are about to be
+     * overwritten, and gets them back through a backfill. Must be called with the lock held.
+     */
+    private void resync(Subscription subscription) {
+        monitor.warning("A transfer over " + root + " fell " + (head - subscription.cursor) + " files behind, resyncing it with a backfill");
+        subscription.cursor = head;
+        subscription.resyncs++;
+        requestBackfill(subscription);
+    }
+
+    /**
+     * Recursively registers a directory and all its subdirectories with the WatchService
+     */
+    private void registerDirectoryRecursively(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+                watchKeyToPath.put(key, dir);
+                watchedDirectories.add(dir);
+                monitor.debug("Registered directory: " + dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                monitor.warning("Failed to visit: " + file + " - " + exc.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Registers a single directory (used for dynamically created subdirectories)
+     */
+    private void registerDirectory(Path dir) {
+        try {
+            WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+            watchKeyToPath.put(key, dir);
+            watchedDirectories.add(dir);
+            monitor.info("Registered new directory: " + dir);
+        } catch (IOException e) {
+            monitor.severe("Failed to register directory: " + dir, e);
+        }
+    }
+
+    /**
+     * Runs backfill rounds while subscriptions are waiting for one. Every round serves the subscriptions that asked
+     * for a backfill before it started.
+     */
+    private void runBackfills() {
+        try {
+            while (true) {
+                TimeUnit.MILLISECONDS.sleep(BACKFILL_GATHER_DELAY.toMillis());
+                List<Subscription> round;
+                lock.lock();
+                try {
+                    backfillRequests.removeIf(subscription -> subscription.closed);
+                    if (stopped || backfillRequests.isEmpty()) {
+                        backfillThread = null;
+                        return;
+                    }
+                    round = new ArrayList<>(backfillRequests);
+                    backfillRequests.clear();
+                } finally {
+                    lock.unlock();
+                }
+                try {
+                    backfill(round);
+                } catch (RuntimeException e) {
+                    monitor.severe("LocalFiles backfill failed: " + root, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            monitor.debug("LocalFiles backfill stopped: " + root);
+        }
+    }
+
+    /**
+     * Hands the files found in the tree to the subscriptions of a round.
+     * <p>
+     * Scanned files are hashed on a hashing pool of the round, and delivered to every subscription of the round, which
+     * skips the files it has sent already and paces the others to its backfill rate. Watches are registered before any
+     * backfill starts, so files written during the backfill are picked up by the watch as well.
+     */
+    private void backfill(List<Subscription> round) throws InterruptedException {
+        var startedAt = System.currentTimeMillis();
+        var hashedFiles = new ArrayList<HashedFile>();
+        var deferred = new HashSet<Subscription>();
+        monitor.info("Backfilling existing files of " + root + " for " + round.size() + " transfer(s)");
+
+        try (var scanner = new BackfillScanner(root, hashWorkers, monitor); var pool = new FileHashingPool(hashWorkers, monitor)) {
+            scanner.start();
+            while (!scanner.isFinished() || pool.hasPending()) {
+                var submitted = 0;
+                var file = scanner.poll(pool.hasPending() ? 0 : 50, TimeUnit.MILLISECONDS);
+                while (file != null) {
+                    pool.submit(file);
+                    file = ++submitted < MAX_BACKFILL_SUBMITS_PER_ROUND ? scanner.poll(0, TimeUnit.MILLISECONDS) : null;
+                }
+                if (submitted == 0 && pool.hasPending()) {
+                    pool.awaitCompletion(50, TimeUnit.MILLISECONDS);
+                }
+
+                pool.drainCompleted(hashedFiles::add);
+                for (var hashedFile : hashedFiles) {
+                    if (hashedFile.hash() != null && !deliverBackfill(round, deferred, hashedFile)) {
+                        return;
+                    }
+                }
+                hashedFiles.clear();
+            }
+            monitor.info("Backfill of " + root + " completed in " + (System.currentTimeMillis() - startedAt) + " ms: " + scanner.scannedFiles() + " files scanned");
+        }
+    }
+
+    /**
+     * Queues a backfilled file for every open subscription of the round. A full queue is waited for only while nobody
+     * else depends on the backfill; once another subscription of the round has room, or another transfer asks for a
+     * backfill, the subscription leaves the round and is backfilled again later, so a stalled sink does not hold up
+     * the backfill of the others.
+     *
+     * @param deferred subscriptions that left the round, and whose new request is not waited for
+     * @return false once no open subscription is left in the round
+     */
+    private boolean deliverBackfill(List<Subscription> round, Set<Subscription> deferred, HashedFile hashedFile) throws InterruptedException {
+        lock.lock();
+        try {
+            var iterator = round.iterator();
+            while (iterator.hasNext()) {
+                var subscription = iterator.next();
+                while (!subscription.closed && !stopped && subscription.backfillQueue.size() >= BACKFILL_QUEUE_CAPACITY
+                        && !othersWaiting(round, deferred, subscription)) {
+                    changed.await();
+                }
+                if (subscription.closed || stopped) {
+                    iterator.remove();
+                } else if (subscription.backfillQueue.size() >= BACKFILL_QUEUE_CAPACITY) {
+                    iterator.remove();
+                    deferred.add(subscription);
+                    requestBackfill(subscription);
+                } else {
+                    subscription.backfillQueue.add(hashedFile);
+                }
+            }
+            changed.signalAll();
+            return !round.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean othersWaiting(List<Subscription> round, Set<Subscription> deferred, Subscription subscription) {
+        for (var other : round) {
+            if (other != subscription && !other.closed && other.backfillQueue.size() < BACKFILL_QUEUE_CAPACITY) {
+                return true;
+            }
+        }
+        for (var request : backfillRequests) {
+            if (!deferred.contains(request)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * File delivered to a subscription.
+     *
+     * @param backfill whether the file was found by the backfill rather than by the watch
+     */
+    record FileEvent(HashedFile file, boolean backfill) {
+    }
+
+    /**
+     * Cursor of one transfer on the files hashed by the watcher.
+     */
+    class Subscription implements AutoCloseable {
+
+        private final Deque<HashedFile> backfillQueue = new ArrayDeque<>();
+        private long cursor;
+        private int resyncs;
+        private boolean closed;
+
+        private Subscription(long cursor) {
+            this.cursor = cursor;
+        }
+
+        /**
+         * Next file for this subscription, blocking until one is available. Files from the watch come before queued
+         * backfilled files, so a running backfill does not delay new files.
+         *
+         * @return the next file, or null once the subscription or the watcher is closed
+         */
+        FileEvent next() throws InterruptedException {
+            lock.lock();
+            try {
+                while (!closed) {
+                    if (cursor < head) {
+                        var hashedFile = log[(int) (cursor % LOG_CAPACITY)];
+                        cursor++;
+                        changed.signalAll();
+                        return new FileEvent(hashedFile, false);
+                    }
+                    if (!backfillQueue.isEmpty()) {
+                        var hashedFile = backfillQueue.poll();
+                        changed.signalAll();
+                        return new FileEvent(hashedFile, true);
+                    }
+                    if (stopped) {
+                        return null;
+                    }
+                    changed.await();
+                }
+                return null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Number of times the subscription fell a full log behind and was resynced with a backfill.
+         */
+        int resyncs() {
+            lock.lock();
+            try {
+                return resyncs;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Ends the subscription. Files not consumed yet are discarded, and the watcher stops if it was the last one.
+         */
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                backfillQueue.clear();
+            } finally {
+                lock.unlock();
+            }
+            unsubscribe(this);
+        }
+    }
+
+    /**
+     * Attributes of a file observed when its last event was received, and the time after which
+     * the write is considered complete if the file has not changed in the meantime.
+     */
+    private record PendingWrite(long size, long lastModified, long dueAt) {
+    }
+
+    /**
+     * Pipeline run by the dedicated thread.
+     * <p>
+     * A file being written produces a burst of ENTRY_MODIFY events. Instead of hashing the file on every event,
+     * events for the same path are coalesced: each event re-arms a quiet period for that path, and only once the
+     * quiet period has elapsed without further events, and the file size and modification time are unchanged
+     * since the last event, is the file submitted to the hashing pool. Hashed files are published in the order
+     * their writes completed within each directory.
+     * <p>
+     * When the watch service reports an OVERFLOW, events for the affected directory were lost; the directory is
+     * rescanned and its files go through the same coalescing as regular events.
+     */
+    private class EventPipeline implements Runnable {
+
+        // ordered by due time: every event removes and re-inserts its path at the tail
+        private final Map<Path, PendingWrite> pendingWrites = new LinkedHashMap<>();
+        private final List<HashedFile> hashedFiles = new ArrayList<>();
+
+        @Override
+        public void run() {
+            try {
+                watch();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                monitor.debug("LocalFiles pipeline stopped: " + root);
+            } catch (RuntimeException e) {
+                monitor.severe("LocalFiles pipeline failed: " + root, e);
+            } finally {
+                // end the streams of the subscriptions, and let new transfers start a new watcher
+                boolean alreadyStopped;
+                lock.lock();
+                try {
+                    alreadyStopped = stopped;
+                    stopped = true;
+                    changed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                if (!alreadyStopped) {
+                    close();
+                }
+            }
+        }
+
+        private void watch() throws InterruptedException {
+            while (true) {
+                WatchKey key;
+                if (hashingPool.hasPending()) {
+                    // wake up as soon as a hash is ready, and pick up new events without blocking
+                    hashingPool.awaitCompletion(nextPollTimeout(), TimeUnit.MILLISECONDS);
+                    key = watchService.poll();
+                } else if (pendingWrites.isEmpty()) {
+                    key = watchService.take();
+                } else {
+                    key = watchService.poll(nextPollTimeout(), TimeUnit.MILLISECONDS);
+                }
+                while (key != null) {
+                    handleEvents(key);
+                    key = watchService.poll();
+                }
+
+                for (var path : releaseCompletedWrites()) {
+                    hashingPool.submit(path);
+                }
+                hashingPool.drainCompleted(hashedFiles::add);
+                for (var hashedFile : hashedFiles) {
+                    publish(hashedFile);
+                }
+                hashedFiles.clear();
+            }
+        }
+
+        private long nextPollTimeout() {
+            var iterator = pendingWrites.values().iterator();
+            if (!iterator.hasNext()) {
+                // a zero quiet period must not turn waiting for hashes into a busy loop
+                return Math.max(1, quietPeriod.toMillis());
+            }
+            return Math.max(1, iterator.next().dueAt() - System.currentTimeMillis());
+        }
+
+        private void handleEvents(WatchKey watchKey) {
+            // Get the directory that triggered this event
+            Path dir = watchKeyToPath.get(watchKey);
+            if (dir == null) {
+                monitor.warning("WatchKey not found in map - this should not happen");
+                watchKey.pollEvents();
+                watchKey.reset();
+                return;
+            }
+
+            for (var event : watchKey.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    monitor.warning("Watch events were lost for " + dir + ", rescanning the directory");
+                    rescan(dir);
+                    continue;
+                }
+
+                // Resolve the full path by combining the watched directory with the event context
+                Path resolvedPath = dir.resolve((Path) event.context());
+                monitor.debug("File system event: " + event.kind().name() + " for " + resolvedPath);
+
+                // Skip directories - we only want to process files; register newly created ones
+                if (Files.isDirectory(resolvedPath)) {
+                    if (event.kind() == ENTRY_CREATE) {
+                        monitor.info("New directory detected: " + resolvedPath);
+                        registerDirectory(resolvedPath);
+                        // files may have been created before the watch was registered
+                        rescan(resolvedPath);
+                    }
+                    continue;
+                }
+
+                markWritten(resolvedPath);
+            }
+
+            if (!watchKey.reset()) {
+                // the directory is no longer accessible, typically because it was deleted
+                watchKeyToPath.remove(watchKey);
+                watchedDirectories.remove(dir);
+                monitor.debug("Stopped watching directory: " + dir);
+            }
+        }
+
+        /**
+         * Treats every file of a directory as written, and registers (and rescans) subdirectories that are not
+         * watched yet. Used when events for the directory may have been lost.
+         */
+        private void rescan(Path dir) {
+            try (var entries = Files.newDirectoryStream(dir)) {
+                for (var entry : entries) {
+                    if (Files.isDirectory(entry)) {
+                        if (!watchedDirectories.contains(entry)) {
+                            registerDirectory(entry);
+                            rescan(entry);
+                        }
+                    } else {
+                        markWritten(entry);
+                    }
+                }
+            } catch (IOException e) {
+                monitor.warning("Failed to rescan directory: " + dir + " - " + e.getMessage());
+            }
+        }
+
+        private void markWritten(Path path) {
+            pendingWrites.remove(path);
+            var pendingWrite = observe(path);
+            if (pendingWrite != null) {
+                pendingWrites.put(path, pendingWrite);
+            }
+        }
+
+        /**
+         * Collects files whose quiet period has elapsed. Files that changed since their last event are still
+         * being written and get a new quiet period; files that disappeared are dropped.
+         */
+        private List<Path> releaseCompletedWrites() {
+            var now = System.currentTimeMillis();
+            List<Path> completedWrites = new ArrayList<>();
+            var iterator = pendingWrites.entrySet().iterator();
+            List<Path> stillWriting = new ArrayList<>();
+            while (iterator.hasNext()) {
+                var entry = iterator.next();
+                if (entry.getValue().dueAt() > now) {
+                    break;
+                }
+                iterator.remove();
+
+                var path = entry.getKey();
+                var current = observe(path);
+                if (current == null) {
+                    monitor.debug("File disappeared before its write completed: " + path);
+                } else if (current.size() == entry.getValue().size() && current.lastModified() == entry.getValue().lastModified()) {
+                    completedWrites.add(path);
+                } else {
+                    stillWriting.add(path);
+                }
+            }
+            for (var path : stillWriting) {
+                markWritten(path);
+            }
+            return completedWrites;
+        }
+
+        private PendingWrite observe(Path path) {
+            try {
+                var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                return new PendingWrite(attributes.size(), attributes.lastModifiedTime().toMillis(), System.currentTimeMillis() + quietPeriod.toMillis());
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+}
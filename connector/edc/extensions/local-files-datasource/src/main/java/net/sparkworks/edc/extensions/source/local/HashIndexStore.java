@@ -0,0 +1,156 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.source.local;
+
+import org.eclipse.edc.spi.monitor.Monitor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The state directory holding the {@link FileHashIndex} logs of LocalFiles transfers, one per transfer process.
+ * <p>
+ * When a transfer ends its index is handed back here. The log is not deleted right away: a suspended transfer
+ * resumes under the same process id and must not send its files again. Instead, released logs are deleted once
+ * they have not been written for the dedup retention window, when every entry in them would have expired anyway,
+ * and the least recently written released logs are deleted whenever the directory grows beyond its size cap.
+ * Logs of running transfers are never deleted.
+ */
+class HashIndexStore {
+
+    private static final String LOG_SUFFIX = ".hashes";
+
+    private final Path directory;
+    private final Duration retention;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final Monitor monitor;
+    private final Clock clock;
+    private final Map<Path, FileHashIndex> openIndexes = new HashMap<>();
+
+    HashIndexStore(Path directory, Duration retention, int maxEntries, long maxBytes, Monitor monitor) {
+        this(directory, retention, maxEntries, maxBytes, monitor, Clock.systemUTC());
+    }
+
+    HashIndexStore(Path directory, Duration retention, int maxEntries, long maxBytes, Monitor monitor, Clock clock) {
+        this.directory = directory;
+        this.retention = retention;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.monitor = monitor;
+        this.clock = clock;
+    }
+
+    /**
+     * Opens the index of a transfer process, picking up the hashes it had already sent if it ran before.
+     * Closing the index hands it back to the store. An index is open at most once, since two indexes appending to
+     * the same log would corrupt it when either compacts it.
+     *
+     * @throws IllegalStateException if the index of the process is already open
+     */
+    synchronized FileHashIndex open(String processId) throws IOException {
+        var logFile = directory.resolve(processId.replaceAll("[^A-Za-z0-9._-]", "_") + LOG_SUFFIX);
+        if (openIndexes.containsKey(logFile)) {
+            throw new IllegalStateException("The file hash index " + logFile + " of transfer " + processId + " is already open");
+        }
+        var index = new FileHashIndex(logFile, retention, maxEntries, monitor, clock, this::release);
+        openIndexes.put(logFile, index);
+        sweep();
+        return index;
+    }
+
+    /**
+     * Deletes released logs that are past the retention window, then the least recently written released logs
+     * until the directory fits its size cap.
+     */
+    synchronized void sweep() {
+        var expiredBefore = clock.millis() - retention.toMillis();
+        var released = new ArrayList<LogFile>();
+        var totalBytes = 0L;
+        for (var logFile : listLogs()) {
+            if (!openIndexes.containsKey(logFile.path()) && logFile.lastModified() <= expiredBefore) {
+                delete(logFile, "past the retention window");
+                continue;
+            }
+            totalBytes += logFile.size();
+            if (!openIndexes.containsKey(logFile.path())) {
+                released.add(logFile);
+            }
+        }
+        released.sort(Comparator.comparingLong(LogFile::lastModified));
+        for (var logFile : released) {
+            if (totalBytes <= maxBytes) {
+                return;
+            }
+            if (delete(logFile, "beyond the state directory cap of " + maxBytes + " bytes")) {
+                totalBytes -= logFile.size();
+            }
+        }
+        if (totalBytes > maxBytes) {
+            monitor.warning("File hash indexes of running transfers use " + totalBytes + " bytes in " + directory + ", more than the cap of " + maxBytes + " bytes");
+        }
+    }
+
+    private synchronized void release(FileHashIndex index) {
+        openIndexes.values().remove(index);
+        sweep();
+    }
+
+    private List<LogFile> listLogs() {
+        try (var files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(LOG_SUFFIX)).map(this::logFile).filter(it -> it != null).toList();
+        } catch (NoSuchFileException e) {
+            return List.of();
+        } catch (IOException | UncheckedIOException e) {
+            monitor.warning("Failed to list file hash indexes in " + directory + ": " + e.getMessage());
+            return List.of();
+        }
+    }
+
+    private LogFile logFile(Path path) {
+        try {
+            var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new LogFile(path, attributes.size(), attributes.lastModifiedTime().toMillis());
+        } catch (IOException e) {
+            // deleted in the meantime
+            return null;
+        }
+    }
+
+    private boolean delete(LogFile logFile, String reason) {
+        try {
+            Files.deleteIfExists(logFile.path());
+            monitor.debug("Deleted file hash index " + logFile.path() + " of an ended transfer, " + reason);
+            return true;
+        } catch (IOException e) {
+            monitor.warning("Failed to delete file hash index " + logFile.path() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private record LogFile(Path path, long size, long lastModified) {
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.source.local;
+
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Part backed by a file on the local filesystem.
+ * <p>
+ * Besides reading the whole file, the part supports reading from an arbitrary offset, so that a sink can resume
+ * a failed upload from the last acknowledged byte or send a large file in chunks, and exposes a {@link FileChannel}
+ * for positional reads and {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.
+ * Streams returned by this part are always {@link FileInputStream}s, so sinks that only know the
+ * {@link DataSource.Part} interface can still reach the underlying channel.
+ */
+public class LocalFilePart implements DataSource.Part {
+
+    private final Path path;
+
+    public LocalFilePart(Path path) {
+        this.path = path;
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    @Override
+    public String name() {
+        return path.toString();
+    }
+
+    /**
+     * Current size of the file in bytes, or -1 if it cannot be determined.
+     */
+    @Override
+    public long size() {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public InputStream openStream() {
+        return openStream(0);
+    }
+
+    /**
+     * Opens the file for reading from the given byte offset.
+     *
+     * @param offset the position of the first byte to read
+     * @return a stream positioned at the offset
+     */
+    public FileInputStream openStream(long offset) {
+        try {
+            var stream = newStream();
+            if (offset > 0) {
+                try {
+                    stream.getChannel().position(offset);
+                } catch (IOException e) {
+                    stream.close();
+                    throw e;
+                }
+            }
+            return stream;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open " + path + " at offset " + offset, e);
+        }
+    }
+
+    /**
+     * Opens a new stream at the start of the file. Subclasses may return a subclass that tracks how far the file is
+     * read.
+     */
+    protected FileInputStream newStream() throws IOException {
+        return new FileInputStream(path.toFile());
+    }
+
+    /**
+     * Opens a read-only channel on the file, for positional reads and zero-copy transfers.
+     * The caller is responsible for closing the channel.
+     */
+    public FileChannel openChannel() throws IOException {
+        return FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    @Override
+    public String toString() {
+        return "LocalFilePart[" + path + "]";
+    }
+}
@@ -14,6 +14,7 @@
 
 package net.sparkworks.edc.extensions.source.local;
 
+import net.sparkworks.edc.extensions.source.local.FileHashingPool.HashedFile;
 import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
 import org.eclipse.edc.connector.dataplane.spi.pipeline.StreamResult;
 import org.eclipse.edc.spi.monitor.Monitor;
@@ -22,23 +23,9 @@ import org.jetbrains.annotations.NotNull;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.file.FileSystems;
-import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.WatchKey;
-import java.nio.file.WatchService;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
 import java.util.Spliterator;
 import java.util.Spliterators;
@@ -47,214 +34,173 @@ import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
-import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
-import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
 import static java.util.stream.StreamSupport.stream;
 
 /**
  * Data source that watches a local filesystem directory for new or modified files.
  * Monitors recursively, including all subdirectories.
+ * Files are only processed once their writes have completed, so files still being written are not hashed repeatedly.
  * Uses SHA-256 hash-based deduplication to prevent processing duplicate files.
+ * <p>
+ * Watching and hashing are done by a {@link FolderWatcher} shared with every other transfer over the same folder;
+ * this source holds a subscription to it, and deduplicates the files it receives against its own hash index on the
+ * thread that consumes the part stream. The hash of a file is recorded only once the sink has read the file to the
+ * end, so a file whose upload was cut short by a failure or a crash is sent again. Backfilled files that were not
+ * sent yet are handed out at no more than {@code backfillRate} files per second, so that a large backlog does not
+ * flood the sink.
  */
 public class LocalFilesDataSource implements DataSource, Closeable {
 
-    private final WatchService watchService;
     private final File sourceFolder;
-    private final Set<String> sentFileHashes;
+    private final FolderWatcher.Subscription subscription;
+    private final FileHashIndex sentFileHashes;
+    // hashes of files handed to the sink that it has not read to the end yet, so that copies received meanwhile are skipped
+    private final Set<ByteBuffer> unsettledHashes = ConcurrentHashMap.newKeySet();
+    private final int backfillRate;
     private final Monitor monitor;
-    private final Map<WatchKey, Path> watchKeyToPath;
-
-    public LocalFilesDataSource(File sourceFolder, Monitor monitor) {
+    private long nextBackfillEmissionNanos = System.nanoTime();
+    private volatile boolean closed;
+
+    LocalFilesDataSource(File sourceFolder, FolderWatcher.Subscription subscription, FileHashIndex sentFileHashes, int backfillRate, Monitor monitor) {
+        this.sourceFolder = sourceFolder;
+        this.subscription = subscription;
+        this.sentFileHashes = sentFileHashes;
+        this.backfillRate = backfillRate;
         this.monitor = monitor;
-        this.watchKeyToPath = new HashMap<>();
 
         monitor.info("Creating LocalFilesDataSource: " + sourceFolder.getAbsolutePath());
-        monitor.info("Monitoring recursively (including subdirectories)");
-        monitor.info("Using SHA-256 hash-based deduplication");
-
-        try {
-            this.watchService = FileSystems.getDefault().newWatchService();
-            this.sourceFolder = sourceFolder;
-            this.sentFileHashes = ConcurrentHashMap.newKeySet();
-
-            // Register the root directory and all subdirectories recursively
-            registerDirectoryRecursively(Paths.get(this.sourceFolder.toURI()));
-
-            monitor.info("Registered " + watchKeyToPath.size() + " directories for monitoring");
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        monitor.info("Using SHA-256 hash-based deduplication (" + sentFileHashes.size() + " known hashes)");
     }
 
-    /**
-     * Recursively registers a directory and all its subdirectories with the WatchService
-     */
-    private void registerDirectoryRecursively(Path start) throws IOException {
-        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
-                watchKeyToPath.put(key, dir);
-                monitor.debug("Registered directory: " + dir);
-                return FileVisitResult.CONTINUE;
-            }
-
-            @Override
-            public FileVisitResult visitFileFailed(Path file, IOException exc) {
-                monitor.warning("Failed to visit: " + file + " - " + exc.getMessage());
-                return FileVisitResult.CONTINUE;
-            }
-        });
-    }
-
-    /**
-     * Registers a single directory (used for dynamically created subdirectories)
-     */
-    private void registerDirectory(Path dir) {
-        try {
-            WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
-            watchKeyToPath.put(key, dir);
-            monitor.info("Registered new directory: " + dir);
-        } catch (IOException e) {
-            monitor.severe("Failed to register directory: " + dir, e);
+    @Override
+    public synchronized StreamResult<Stream<Part>> openPartStream() {
+        if (closed) {
+            return StreamResult.error("LocalFilesDataSource is closed: " + sourceFolder);
         }
+        return StreamResult.success(openSubscriptionStream());
     }
-    
-    @Override
-    public StreamResult<Stream<Part>> openPartStream() {
-        Stream<Part> stream = openRecordsStream(watchService)
-                .filter(Objects::nonNull)
-                .flatMap(watchKey -> {
-                    // Get the directory that triggered this event
-                    Path dir = watchKeyToPath.get(watchKey);
-                    if (dir == null) {
-                        monitor.warning("WatchKey not found in map - this should not happen");
-                        return Stream.empty();
-                    }
-
-                    return watchKey.pollEvents().stream()
-                            .map(event -> {
-                                // Resolve the full path by combining the watched directory with the event context
-                                Path resolvedPath = dir.resolve((Path) event.context());
-                                monitor.debug("File system event: " + event.kind().name() + " for " + resolvedPath);
-
-                                // If this is a directory creation event, register the new directory
-                                if (event.kind() == ENTRY_CREATE && Files.isDirectory(resolvedPath)) {
-                                    monitor.info("New directory detected: " + resolvedPath);
-                                    registerDirectory(resolvedPath);
-                                }
-
-                                return resolvedPath;
-                            });
-                })
-                .filter(path -> {
-                    // Skip directories - we only want to process files
-                    if (Files.isDirectory(path)) {
-                        return false;
-                    }
 
-                    // Compute hash of file contents
-                    String fileHash = computeFileHash(path);
-
-                    if (fileHash == null) {
-                        // If hash computation failed, skip this file
-                        monitor.warning("Skipping file due to hash computation failure: " + path);
-                        return false;
-                    }
-
-                    // Check if we've already sent a file with this hash
-                    if (sentFileHashes.contains(fileHash)) {
-                        monitor.debug("Skipping duplicate file (hash: " + fileHash + "): " + path);
-                        return false;
-                    }
-
-                    // Add hash to the set and allow the file through
-                    sentFileHashes.add(fileHash);
-                    monitor.info("Processing new file (hash: " + fileHash + "): " + path.getFileName());
-                    return true;
-                })
-                .map(StreamingPart::new);
-
-        return StreamResult.success(stream);
+    @NotNull
+    private Stream<Part> openSubscriptionStream() {
+        return stream(new SubscriptionSpliterator(), false);
     }
 
     /**
-     * Computes the SHA-256 hash of a file's contents.
-     *
-     * @param path the path to the file
-     * @return the hexadecimal string representation of the hash, or null if an error occurs
+     * Returns the part to hand to the sink for a hashed file, or null if a file with the same content was sent before
+     * or is being sent. Backfilled files are paced to the backfill rate.
      */
-    private String computeFileHash(Path path) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] fileBytes = Files.readAllBytes(path);
-            byte[] hashBytes = digest.digest(fileBytes);
+    private Part accept(FolderWatcher.FileEvent event) throws InterruptedException {
+        HashedFile hashedFile = event.file();
+        byte[] fileHash = hashedFile.hash();
 
-            // Convert bytes to hex string
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hashBytes) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) {
-                    hexString.append('0');
+        if (event.backfill()) {
+            if (sentFileHashes.contains(fileHash)) {
+                return null;
+            }
+            if (backfillRate > 0) {
+                var now = System.nanoTime();
+                if (nextBackfillEmissionNanos > now) {
+                    TimeUnit.NANOSECONDS.sleep(nextBackfillEmissionNanos - now);
                 }
-                hexString.append(hex);
+                nextBackfillEmissionNanos = Math.max(now, nextBackfillEmissionNanos) + TimeUnit.SECONDS.toNanos(1) / backfillRate;
             }
-            return hexString.toString();
-        } catch (NoSuchAlgorithmException | IOException e) {
-            monitor.severe("Error computing file hash for " + path + ": " + e.getMessage(), e);
+        }
+
+        // the hash is recorded once the sink has read the file, see SettlingPart
+        if (sentFileHashes.contains(fileHash) || !unsettledHashes.add(ByteBuffer.wrap(fileHash))) {
+            monitor.debug("Skipping duplicate file (hash: " + FileHasher.toHex(fileHash) + "): " + hashedFile.path());
             return null;
         }
+
+        monitor.info("Processing new file (hash: " + FileHasher.toHex(fileHash) + "): " + hashedFile.path().getFileName());
+        return new SettlingPart(hashedFile.path(), fileHash);
     }
 
-    @NotNull
-    private Stream<WatchKey> openRecordsStream(WatchService watchService) {
-        return stream(new WatchKeyAbstractSpliterator(watchService), false);
+    /**
+     * Records the hash of a file the sink has read to the end as sent.
+     */
+    private void settle(byte[] fileHash) {
+        // recorded before it stops being unsettled, so that a copy received in between is not sent again
+        sentFileHashes.add(fileHash);
+        unsettledHashes.remove(ByteBuffer.wrap(fileHash));
     }
 
+    /**
+     * Ends the subscription and the part stream. Files received but not yet consumed are discarded.
+     */
     @Override
     public void close() throws IOException {
-        watchService.close();
+        synchronized (this) {
+            closed = true;
+        }
+        try {
+            subscription.close();
+        } finally {
+            sentFileHashes.close();
+        }
     }
 
-    private record StreamingPart(Path path) implements Part {
-        
-        @Override
-        public String name() {
-            return path.toString();
+    /**
+     * Local file part that settles its hash once the sink has read the file to the end and closed the stream. Its
+     * streams stay {@link FileInputStream}s, and the end is detected from the position of their channel, so reads
+     * straight from the channel count as well.
+     */
+    private class SettlingPart extends LocalFilePart {
+
+        private final byte[] fileHash;
+
+        SettlingPart(Path path, byte[] fileHash) {
+            super(path);
+            this.fileHash = fileHash;
         }
 
         @Override
-        public InputStream openStream() {
-            try {
-                return new FileInputStream(path.toFile());
-            } catch (FileNotFoundException e) {
-                throw new RuntimeException(e);
-            }
+        protected FileInputStream newStream() throws IOException {
+            return new FileInputStream(path().toFile()) {
+
+                private boolean streamClosed;
+
+                @Override
+                public void close() throws IOException {
+                    if (streamClosed) {
+                        return;
+                    }
+                    streamClosed = true;
+                    var ended = getChannel().position() >= getChannel().size();
+                    super.close();
+                    if (ended) {
+                        settle(fileHash);
+                    }
+                }
+            };
         }
     }
 
-    private static class WatchKeyAbstractSpliterator extends Spliterators.AbstractSpliterator<WatchKey> {
-
-        private final WatchService watchService;
+    /**
+     * Spliterator over the files of the subscription. It blocks until a new file is available
+     * and ends when the data source is closed or the consuming thread is interrupted.
+     */
+    private class SubscriptionSpliterator extends Spliterators.AbstractSpliterator<Part> {
 
-        WatchKeyAbstractSpliterator(WatchService watchService) {
+        SubscriptionSpliterator() {
             super(Long.MAX_VALUE, Spliterator.ORDERED);
-            this.watchService = watchService;
         }
 
         @Override
-        public boolean tryAdvance(Consumer<? super WatchKey> action) {
-            var poll = watchService.poll();
-            while (poll == null) {
-                try {
-                    poll = watchService.poll(100, TimeUnit.MILLISECONDS);
-                } catch (InterruptedException e) {
-                    throw new RuntimeException(e);
+        public boolean tryAdvance(Consumer<? super Part> action) {
+            try {
+                FolderWatcher.FileEvent event;
+                while ((event = subscription.next()) != null) {
+                    var part = accept(event);
+                    if (part != null) {
+                        action.accept(part);
+                        return true;
+                    }
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-            action.accept(poll);
-            poll.reset();
-            return true;
+            return false;
         }
     }
 }
@@ -16,11 +16,31 @@ package net.sparkworks.edc.extensions.source.local;
 
 import org.eclipse.edc.connector.dataplane.spi.pipeline.PipelineService;
 import org.eclipse.edc.runtime.metamodel.annotation.Inject;
+import org.eclipse.edc.runtime.metamodel.annotation.Setting;
+import org.eclipse.edc.spi.EdcException;
 import org.eclipse.edc.spi.system.ServiceExtension;
 import org.eclipse.edc.spi.system.ServiceExtensionContext;
 
+import java.nio.file.Path;
+import java.time.Duration;
+
 public class LocalFilesDataSourceExtension implements ServiceExtension {
 
+    @Setting(value = "Directory where LocalFiles transfers persist the hashes of the files they have sent")
+    private static final String STATE_DIR = "edc.localfiles.state.dir";
+
+    @Setting(value = "Number of days the hash of a sent file is remembered")
+    private static final String DEDUP_RETENTION_DAYS = "edc.localfiles.dedup.retention.days";
+
+    @Setting(value = "Maximum number of sent file hashes remembered per transfer")
+    private static final String DEDUP_MAX_ENTRIES = "edc.localfiles.dedup.max.entries";
+
+    @Setting(value = "Maximum size in megabytes of the state directory; beyond it the hash indexes of ended transfers are deleted, least recently written first")
+    private static final String STATE_MAX_MB = "edc.localfiles.state.max.mb";
+
+    @Setting(value = "Default number of threads hashing files per watched folder, overridden by the hashWorkers data address property of a transfer; transfers share a watcher only when they use the same number")
+    private static final String HASH_WORKERS = "edc.localfiles.hash.workers";
+
     @Override
     public String name() {
         return "Local Files Data Source";
@@ -33,10 +53,24 @@ public class LocalFilesDataSourceExtension implements ServiceExtension {
     public void initialize(ServiceExtensionContext context) {
         var monitor = context.getMonitor();
 
-        pipelineService.registerFactory(new LocalFilesDataSourceFactory(monitor));
+        var stateDirectory = Path.of(context.getSetting(STATE_DIR, "localfiles-state"));
+        var dedupRetention = Duration.ofDays(context.getSetting(DEDUP_RETENTION_DAYS, 30));
+        var dedupMaxEntries = context.getSetting(DEDUP_MAX_ENTRIES, 1_000_000);
+        if (dedupMaxEntries < 1) {
+            throw new EdcException(DEDUP_MAX_ENTRIES + " must be at least 1 but is " + dedupMaxEntries);
+        }
+        var stateMaxBytes = context.getSetting(STATE_MAX_MB, 1024L) * 1024 * 1024;
+        var hashWorkers = context.getSetting(HASH_WORKERS, Runtime.getRuntime().availableProcessors());
+
+        var hashIndexes = new HashIndexStore(stateDirectory, dedupRetention, dedupMaxEntries, stateMaxBytes, monitor);
+        // clears out the indexes of transfers that ended before a restart
+        hashIndexes.sweep();
+
+        pipelineService.registerFactory(new LocalFilesDataSourceFactory(monitor, hashIndexes, hashWorkers));
 
         monitor.info("✓ Local Files Data Source registered");
         monitor.info("  Type: LocalFiles");
         monitor.info("  Deduplication: SHA-256 hash-based");
+        monitor.info("  Hash index: " + stateDirectory.toAbsolutePath() + " (retention " + dedupRetention.toDays() + " days, max " + dedupMaxEntries + " entries, directory cap " + stateMaxBytes / (1024 * 1024) + " MB)");
     }
 }
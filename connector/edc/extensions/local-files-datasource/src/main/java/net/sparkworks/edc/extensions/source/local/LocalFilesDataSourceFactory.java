@@ -18,18 +18,32 @@ import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
 import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSourceFactory;
 import org.eclipse.edc.spi.monitor.Monitor;
 import org.eclipse.edc.spi.result.Result;
+import org.eclipse.edc.spi.types.domain.DataAddress;
 import org.eclipse.edc.spi.types.domain.transfer.DataFlowStartMessage;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 
 public class LocalFilesDataSourceFactory implements DataSourceFactory {
 
+    private static final String DEFAULT_QUIET_PERIOD_MILLIS = "1000";
+    private static final String DEFAULT_BACKFILL_RATE = "1000";
+
     private final Monitor monitor;
+    private final HashIndexStore hashIndexes;
+    private final int defaultHashWorkers;
+    // one watcher per folder, quiet period and number of hashing workers, shared by all transfers over it
+    private final Map<String, FolderWatcher> folderWatchers = new HashMap<>();
 
-    public LocalFilesDataSourceFactory(Monitor monitor) {
+    LocalFilesDataSourceFactory(Monitor monitor, HashIndexStore hashIndexes, int defaultHashWorkers) {
         this.monitor = monitor;
+        this.hashIndexes = hashIndexes;
+        this.defaultHashWorkers = defaultHashWorkers;
     }
 
     @Override
@@ -40,15 +54,106 @@ public class LocalFilesDataSourceFactory implements DataSourceFactory {
     @Override
     public DataSource createSource(DataFlowStartMessage dataFlowStartMessage) {
         var sourceFolder = sourceFolder(dataFlowStartMessage).get();
+        var sourceDataAddress = dataFlowStartMessage.getSourceDataAddress();
+        var quietPeriod = quietPeriod(sourceDataAddress);
+        var hashWorkers = hashWorkers(sourceDataAddress);
+        var backfill = Boolean.parseBoolean(sourceDataAddress.getStringProperty("backfill", "false"));
+        var backfillRate = backfillRate(sourceDataAddress);
 
-        return new LocalFilesDataSource(sourceFolder, monitor);
+        var hashIndex = openHashIndex(dataFlowStartMessage);
+        try {
+            return new LocalFilesDataSource(sourceFolder, subscribe(sourceFolder, quietPeriod, hashWorkers, backfill), hashIndex, backfillRate, monitor);
+        } catch (RuntimeException e) {
+            try {
+                hashIndex.close();
+            } catch (IOException closeFailure) {
+                e.addSuppressed(closeFailure);
+            }
+            throw e;
+        }
     }
     
     @Override
     public @NotNull Result<Void> validateRequest(DataFlowStartMessage dataFlowStartMessage) {
-        return sourceFolder(dataFlowStartMessage).map(it -> Result.success()).orElseGet(() -> Result.failure("sourceFolder is not found or it does not exist"));
+        if (sourceFolder(dataFlowStartMessage).isEmpty()) {
+            return Result.failure("sourceFolder is not found or it does not exist");
+        }
+        var sourceDataAddress = dataFlowStartMessage.getSourceDataAddress();
+        try {
+            if (quietPeriod(sourceDataAddress).isNegative()) {
+                return Result.failure("quietPeriodMillis must not be negative");
+            }
+            if (hashWorkers(sourceDataAddress) < 1) {
+                return Result.failure("hashWorkers must be at least 1");
+            }
+            var backfill = sourceDataAddress.getStringProperty("backfill", "false");
+            if (!backfill.equalsIgnoreCase("true") && !backfill.equalsIgnoreCase("false")) {
+                return Result.failure("backfill must be true or false");
+            }
+            if (backfillRate(sourceDataAddress) < 0) {
+                return Result.failure("backfillRate must not be negative");
+            }
+        } catch (NumberFormatException e) {
+            return Result.failure("Invalid LocalFiles address: " + e.getMessage());
+        }
+        return Result.success();
     }
     
+    /**
+     * Opens the persistent hash index of a transfer. The index is keyed by the transfer process id,
+     * so a restarted transfer picks up the hashes it had already sent, while other transfers over
+     * the same folder keep their own. Closing the data source hands the index back to the store,
+     * which deletes it once it has expired or no longer fits the state directory.
+     */
+    private FileHashIndex openHashIndex(DataFlowStartMessage request) {
+        var processId = Optional.ofNullable(request.getProcessId()).orElse(request.getId());
+        try {
+            return hashIndexes.open(processId);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open the file hash index of " + processId, e);
+        }
+    }
+
+    /**
+     * Subscribes to the watcher of a folder, starting one if no transfer watches the folder with the same quiet period
+     * and number of hashing workers.
+     */
+    private synchronized FolderWatcher.Subscription subscribe(File sourceFolder, Duration quietPeriod, int hashWorkers, boolean backfill) {
+        try {
+            var root = sourceFolder.toPath().toRealPath();
+            var key = root + "|" + quietPeriod.toMillis() + "|" + hashWorkers;
+            var watcher = folderWatchers.get(key);
+            var subscription = watcher != null ? watcher.subscribe(backfill) : null;
+            if (subscription == null) {
+                watcher = new FolderWatcher(root, quietPeriod, hashWorkers, monitor, stopped -> removeWatcher(key, stopped));
+                folderWatchers.put(key, watcher);
+                subscription = watcher.subscribe(backfill);
+                if (subscription == null) {
+                    throw new RuntimeException("Watching " + root + " stopped right after it started");
+                }
+            }
+            return subscription;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to watch " + sourceFolder, e);
+        }
+    }
+
+    private synchronized void removeWatcher(String key, FolderWatcher watcher) {
+        folderWatchers.remove(key, watcher);
+    }
+
+    private static Duration quietPeriod(DataAddress address) {
+        return Duration.ofMillis(Long.parseLong(address.getStringProperty("quietPeriodMillis", DEFAULT_QUIET_PERIOD_MILLIS)));
+    }
+
+    private int hashWorkers(DataAddress address) {
+        return Optional.ofNullable(address.getStringProperty("hashWorkers")).map(Integer::parseInt).orElse(defaultHashWorkers);
+    }
+
+    private static int backfillRate(DataAddress address) {
+        return Integer.parseInt(address.getStringProperty("backfillRate", DEFAULT_BACKFILL_RATE));
+    }
+
     private Optional<File> sourceFolder(DataFlowStartMessage request) {
         return Optional.of(request).map(DataFlowStartMessage::getSourceDataAddress).map(it -> it.getStringProperty("sourceFolder")).map(File::new).filter(File::exists);
     }
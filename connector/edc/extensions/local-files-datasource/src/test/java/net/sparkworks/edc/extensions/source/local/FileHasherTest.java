@@ -0,0 +1,84 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.source.local;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.SPARSE;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileHasherTest {
+
+    private static final long GIB = 1024L * 1024 * 1024;
+
+    /**
+     * Markers written into an otherwise sparse file, placed across the signed and unsigned 32-bit offset boundaries
+     * so that an offset truncated anywhere in the read loop changes the digest.
+     */
+    private static final Map<Long, String> MARKERS = Map.of(
+            0L, "sparkworks",
+            2 * GIB - 5, "int-boundary",
+            4 * GIB - 3, "uint-boundary");
+
+    /**
+     * SHA-256 of the file written by {@link #writeLargeFile(Path)}, computed independently with
+     * {@code hashlib.sha256} over the same layout.
+     */
+    private static final String EXPECTED_SHA256 = "f0b0618536ccd2c044106bf47f877de868838c3182103ad82ce7056f4c881b83";
+
+    @Test
+    void hash_fileLargerThanHeap(@TempDir Path tempDir) throws IOException {
+        var file = writeLargeFile(tempDir.resolve("large.bin"));
+
+        // the test task runs with a 256 MB heap, so reading the file into memory would fail
+        assertThat(Files.size(file)).isGreaterThan(Runtime.getRuntime().maxMemory());
+
+        var hash = new FileHasher().hash(file);
+
+        assertThat(FileHasher.toHex(hash)).isEqualTo(EXPECTED_SHA256);
+    }
+
+    @Test
+    void hash_reusedHasherMatchesFreshHasher(@TempDir Path tempDir) throws IOException {
+        var first = Files.writeString(tempDir.resolve("first.csv"), "a,b,c\n1,2,3\n");
+        var second = Files.writeString(tempDir.resolve("second.csv"), "x,y\n");
+        var hasher = new FileHasher();
+
+        hasher.hash(first);
+
+        assertThat(hasher.hash(second)).isEqualTo(new FileHasher().hash(second));
+    }
+
+    private static Path writeLargeFile(Path file) throws IOException {
+        // sparse, so the 4 GiB of zeros between the markers take no disk space or write time
+        try (var channel = FileChannel.open(file, CREATE_NEW, WRITE, SPARSE)) {
+            for (var marker : MARKERS.entrySet()) {
+                channel.write(ByteBuffer.wrap(marker.getValue().getBytes(StandardCharsets.US_ASCII)), marker.getKey());
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.source.local;
+
+import org.eclipse.edc.spi.monitor.Monitor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class FolderWatcherTest {
+
+    // more files than the log of the watcher holds
+    private static final int FILES = 5000;
+    private static final long TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    @Test
+    void stalledSubscription_doesNotBlockOthers_andIsResyncedWithBackfill(@TempDir Path root) throws Exception {
+        var watcher = new FolderWatcher(root, Duration.ofMillis(50), 2, mock(Monitor.class), stopped -> { });
+        try (var stalled = watcher.subscribe(false); var reader = watcher.subscribe(false)) {
+            var expected = writeFiles(root);
+
+            // the reader gets every file while the stalled subscription reads nothing
+            assertThat(drain(reader, expected.size(), false)).isEqualTo(expected);
+            assertThat(stalled.resyncs()).isPositive();
+
+            // the files the stalled subscription missed come back through the backfill
+            assertThat(drain(stalled, expected.size(), true)).containsAll(expected);
+        }
+    }
+
+    private static Set<Path> writeFiles(Path root) throws IOException {
+        var files = new HashSet<Path>();
+        for (int i = 0; i < FILES; i++) {
+            files.add(Files.writeString(root.resolve("file-" + i + ".txt"), "content " + i));
+        }
+        return files;
+    }
+
+    /**
+     * Reads a subscription until it returned the given number of distinct files, optionally only backfilled ones. The
+     * subscription is closed once the timeout has passed, so that a read blocked for good returns.
+     */
+    private static Set<Path> drain(FolderWatcher.Subscription subscription, int count, boolean backfillOnly) throws InterruptedException {
+        var files = new HashSet<Path>();
+        var timeout = Executors.newSingleThreadScheduledExecutor();
+        timeout.schedule(subscription::close, TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        try {
+            FolderWatcher.FileEvent event;
+            while (files.size() < count && (event = subscription.next()) != null) {
+                if (!backfillOnly || event.backfill()) {
+                    files.add(event.file().path());
+                }
+            }
+        } finally {
+            timeout.shutdownNow();
+        }
+        return files;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.source.local;
+
+import org.eclipse.edc.spi.monitor.Monitor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+class HashIndexStoreTest {
+
+    private static final Duration RETENTION = Duration.ofDays(30);
+
+    @TempDir
+    private Path stateDirectory;
+
+    @Test
+    void close_keepsIndexForResumedTransfer() throws IOException {
+        var store = new HashIndexStore(stateDirectory, RETENTION, 1000, Long.MAX_VALUE, mock(Monitor.class));
+
+        var index = store.open("process-1");
+        index.add(digest(1));
+        index.close();
+
+        try (var resumed = store.open("process-1")) {
+            assertThat(resumed.contains(digest(1))).isTrue();
+        }
+    }
+
+    @Test
+    void open_rejectsIndexThatIsAlreadyOpen() throws IOException {
+        var store = new HashIndexStore(stateDirectory, RETENTION, 1000, Long.MAX_VALUE, mock(Monitor.class));
+
+        var index = store.open("process-1");
+        assertThatThrownBy(() -> store.open("process-1")).isInstanceOf(IllegalStateException.class);
+        index.close();
+        // once closed it can be opened again
+        store.open("process-1").close();
+    }
+
+    @Test
+    void sweep_deletesReleasedIndexPastRetention() throws IOException {
+        var store = new HashIndexStore(stateDirectory, RETENTION, 1000, Long.MAX_VALUE, mock(Monitor.class));
+        var ended = store.open("ended");
+        ended.add(digest(1));
+        ended.close();
+        var running = store.open("running");
+        running.add(digest(2));
+        age(logFile("ended"), RETENTION.plusDays(1));
+        age(logFile("running"), RETENTION.plusDays(1));
+
+        store.sweep();
+
+        assertThat(Files.exists(logFile("ended"))).isFalse();
+        assertThat(Files.exists(logFile("running"))).isTrue();
+        running.close();
+    }
+
+    @Test
+    void sweep_deletesLeastRecentlyWrittenReleasedIndexesBeyondCap() throws IOException {
+        var ended = new HashIndexStore(stateDirectory, RETENTION, 1000, Long.MAX_VALUE, mock(Monitor.class));
+        for (var processId : new String[] {"oldest", "older", "newest"}) {
+            try (var index = ended.open(processId)) {
+                addDigests(index, 100);
+            }
+        }
+        age(logFile("oldest"), Duration.ofDays(3));
+        age(logFile("older"), Duration.ofDays(2));
+        var logSize = Files.size(logFile("oldest"));
+
+        var store = new HashIndexStore(stateDirectory, RETENTION, 1000, 2 * logSize, mock(Monitor.class));
+        try (var running = store.open("running")) {
+            addDigests(running, 100);
+            age(logFile("running"), Duration.ofDays(4));
+
+            store.sweep();
+
+            assertThat(Files.exists(logFile("oldest"))).isFalse();
+            assertThat(Files.exists(logFile("older"))).isFalse();
+            assertThat(Files.exists(logFile("newest"))).isTrue();
+            // a running transfer is not the store's to delete, even if it is the oldest
+            assertThat(Files.exists(logFile("running"))).isTrue();
+        }
+    }
+
+    private Path logFile(String processId) {
+        return stateDirectory.resolve(processId + ".hashes");
+    }
+
+    private static void addDigests(FileHashIndex index, int count) {
+        for (int i = 0; i < count; i++) {
+            index.add(digest(i));
+        }
+    }
+
+    private static void age(Path file, Duration age) throws IOException {
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().minus(age)));
+    }
+
+    private static byte[] digest(int value) {
+        var digest = new byte[32];
+        digest[0] = (byte) value;
+        digest[31] = (byte) (value >> 8);
+        return digest;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.source.local;
+
+import org.eclipse.edc.spi.monitor.Monitor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class LocalFilesDataSourceTest {
+
+    private static final Duration RETENTION = Duration.ofDays(30);
+
+    @TempDir
+    private Path stateDirectory;
+
+    @Test
+    void accept_recordsHashOnlyOnceSinkReadFileToEnd(@TempDir Path root) throws Exception {
+        var monitor = mock(Monitor.class);
+        var store = new HashIndexStore(stateDirectory, RETENTION, 1000, Long.MAX_VALUE, monitor);
+        var watcher = new FolderWatcher(root, Duration.ofMillis(50), 1, monitor, stopped -> { });
+        var hashIndex = store.open("process-1");
+        try (var source = new LocalFilesDataSource(root.toFile(), watcher.subscribe(false), hashIndex, 0, monitor)) {
+            var parts = source.openPartStream().getContent().iterator();
+            var file = Files.writeString(root.resolve("data.csv"), "a,b,c\n1,2,3\n");
+            var hash = new FileHasher().hash(file);
+
+            var part = parts.next();
+            try (var stream = part.openStream()) {
+                stream.read();
+            }
+            // a cut short upload does not count as sent
+            assertThat(hashIndex.contains(hash)).isFalse();
+
+            try (var stream = part.openStream()) {
+                stream.readAllBytes();
+            }
+            assertThat(hashIndex.contains(hash)).isTrue();
+        }
+    }
+}
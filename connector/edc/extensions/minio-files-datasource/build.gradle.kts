@@ -1,5 +1,6 @@
 plugins {
     `java-library`
+    alias(libs.plugins.jmh)
 }
 
 dependencies {
@@ -11,4 +12,28 @@ dependencies {
 
     // MinIO client for MinIO streaming data source
     implementation(libs.minio.io)
+
+    // Shared connection pool and dispatcher for the MinIO clients
+    implementation(libs.okhttp)
+
+    testImplementation(libs.testcontainers)
+    testImplementation(libs.testcontainers.junit)
+    testImplementation(libs.testcontainers.minio)
+}
+
+// Benchmarks under src/jmh only run on request, with ./gradlew :edc:extensions:minio-files-datasource:jmh
+jmh {
+    resultFormat.set("JSON")
+}
+
+tasks.test {
+    useJUnitPlatform {
+        // ShardedObjectListerIT uploads a million objects to a MinIO container, so it only runs with -DincludeTags=IntegrationTest
+        val includeTags = System.getProperty("includeTags")
+        if (includeTags != null) {
+            includeTags(includeTags)
+        } else {
+            excludeTags("IntegrationTest")
+        }
+    }
 }
@@ -0,0 +1,115 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.source.minio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link DebounceTracker} with the debounce map it replaced, which swept the whole map with
+ * {@code removeIf} under a global lock on every event.
+ * <p>
+ * Both track {@code keys} object names. Every operation is an event for the next key in turn, and the clock advances
+ * so that each key comes back just as its previous entry expires, which keeps the number of tracked keys steady.
+ * Run it with {@code ./gradlew :edc:extensions:minio-files-datasource:jmh}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DebounceTrackerBenchmark {
+
+    private static final long DEBOUNCE_MILLIS = 1000;
+    private static final long RETENTION_MILLIS = 300_000;
+
+    @Param({"100000"})
+    private int keys;
+
+    private String[] names;
+    private long step;
+    private DebounceTracker tracker;
+    private SweepingDebounceMap sweepingMap;
+    private int next;
+    private long now;
+
+    @Setup
+    public void setUp() {
+        names = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            names[i] = "sensors/2024/10/17/reading-" + i + ".csv";
+        }
+        step = Math.max(1, RETENTION_MILLIS / keys);
+        tracker = new DebounceTracker(DEBOUNCE_MILLIS, RETENTION_MILLIS);
+        sweepingMap = new SweepingDebounceMap();
+        for (int i = 0; i < keys; i++) {
+            tracker.accept(names[i], i * step);
+            sweepingMap.accept(names[i], i * step);
+        }
+        next = 0;
+        now = keys * step;
+    }
+
+    @Benchmark
+    public boolean debounceTracker() {
+        return tracker.accept(nextName(), now);
+    }
+
+    @Benchmark
+    public boolean sweepingMap() {
+        return sweepingMap.accept(nextName(), now);
+    }
+
+    private String nextName() {
+        var name = names[next];
+        next = (next + 1) % keys;
+        now += step;
+        return name;
+    }
+
+    /**
+     * The debounce map of MinioFilesDataSource.shouldProcess before DebounceTracker.
+     */
+    private static class SweepingDebounceMap {
+
+        private final Map<String, Long> lastProcessedTimes = new HashMap<>();
+
+        boolean accept(String objectName, long now) {
+            synchronized (lastProcessedTimes) {
+                var lastProcessed = lastProcessedTimes.get(objectName);
+                if (lastProcessed != null && now - lastProcessed < DEBOUNCE_MILLIS) {
+                    return false;
+                }
+                lastProcessedTimes.put(objectName, now);
+                lastProcessedTimes.entrySet().removeIf(entry -> now - entry.getValue() > RETENTION_MILLIS);
+                return true;
+            }
+        }
+    }
+}
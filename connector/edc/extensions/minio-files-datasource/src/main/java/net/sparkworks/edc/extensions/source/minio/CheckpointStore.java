@@ -0,0 +1,153 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.source.minio;
+
+import org.eclipse.edc.spi.monitor.Monitor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The state directory holding the {@link SeenObjectStore} checkpoints of MinIO transfers, one per transfer process.
+ * <p>
+ * When a transfer ends its store is handed back here. The checkpoint is not deleted right away, because a suspended
+ * transfer resumes under the same process id from its checkpoint. Instead, released checkpoints are deleted once
+ * they have not been written for the retention window, and the least recently written released checkpoints are
+ * deleted whenever the directory grows beyond its size cap. Checkpoints of running transfers are never deleted.
+ */
+class CheckpointStore {
+
+    private static final String CHECKPOINT_SUFFIX = ".seen";
+
+    private final Path directory;
+    private final Duration retention;
+    private final long maxBytes;
+    private final Duration contentRetention;
+    private final int maxContentKeys;
+    private final Monitor monitor;
+    private final Map<Path, SeenObjectStore> openStores = new HashMap<>();
+
+    /**
+     * Creates the store of a state directory.
+     *
+     * @param retention how long the checkpoint of an ended transfer is kept for it to resume from
+     * @param maxBytes size the checkpoints of ended transfers are trimmed to
+     * @param contentRetention how long each checkpoint remembers the content key of a sent object
+     * @param maxContentKeys number of content keys each checkpoint remembers at most
+     */
+    CheckpointStore(Path directory, Duration retention, long maxBytes, Duration contentRetention, int maxContentKeys, Monitor monitor) {
+        this.directory = directory;
+        this.retention = retention;
+        this.maxBytes = maxBytes;
+        this.contentRetention = contentRetention;
+        this.maxContentKeys = maxContentKeys;
+        this.monitor = monitor;
+    }
+
+    /**
+     * Opens the seen-object store of a transfer process. Closing the store hands it back.
+     */
+    synchronized SeenObjectStore open(String processId) {
+        var checkpointFile = directory.resolve(processId.replaceAll("[^A-Za-z0-9._-]", "_") + CHECKPOINT_SUFFIX);
+        var store = new SeenObjectStore(checkpointFile, contentRetention, maxContentKeys, monitor, Clock.systemUTC(), this::release);
+        openStores.put(checkpointFile, store);
+        sweep();
+        return store;
+    }
+
+    /**
+     * Deletes released checkpoints that are past the retention window, then the least recently written released
+     * checkpoints until the directory fits its size cap.
+     */
+    synchronized void sweep() {
+        var expiredBefore = System.currentTimeMillis() - retention.toMillis();
+        var released = new ArrayList<Checkpoint>();
+        var totalBytes = 0L;
+        for (var checkpoint : listCheckpoints()) {
+            var open = openStores.containsKey(checkpoint.path());
+            if (!open && checkpoint.lastModified() <= expiredBefore) {
+                delete(checkpoint, "past the retention window");
+                continue;
+            }
+            totalBytes += checkpoint.size();
+            if (!open) {
+                released.add(checkpoint);
+            }
+        }
+        released.sort(Comparator.comparingLong(Checkpoint::lastModified));
+        for (var checkpoint : released) {
+            if (totalBytes <= maxBytes) {
+                return;
+            }
+            if (delete(checkpoint, "beyond the state directory cap of " + maxBytes + " bytes")) {
+                totalBytes -= checkpoint.size();
+            }
+        }
+        if (totalBytes > maxBytes) {
+            monitor.warning("Checkpoints of running MinIO transfers use " + totalBytes + " bytes in " + directory + ", more than the cap of " + maxBytes + " bytes");
+        }
+    }
+
+    private synchronized void release(SeenObjectStore store) {
+        openStores.values().remove(store);
+        sweep();
+    }
+
+    private List<Checkpoint> listCheckpoints() {
+        try (var files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(CHECKPOINT_SUFFIX)).map(this::checkpoint).filter(it -> it != null).toList();
+        } catch (NoSuchFileException e) {
+            return List.of();
+        } catch (IOException | UncheckedIOException e) {
+            monitor.warning("Failed to list MinIO checkpoints in " + directory + ": " + e.getMessage());
+            return List.of();
+        }
+    }
+
+    private Checkpoint checkpoint(Path path) {
+        try {
+            var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new Checkpoint(path, attributes.size(), attributes.lastModifiedTime().toMillis());
+        } catch (IOException e) {
+            // deleted in the meantime
+            return null;
+        }
+    }
+
+    private boolean delete(Checkpoint checkpoint, String reason) {
+        try {
+            Files.deleteIfExists(checkpoint.path());
+            monitor.debug("Deleted MinIO checkpoint " + checkpoint.path() + " of an ended transfer, " + reason);
+            return true;
+        } catch (IOException e) {
+            monitor.warning("Failed to delete MinIO checkpoint " + checkpoint.path() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private record Checkpoint(Path path, long size, long lastModified) {
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.source.minio;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Suppresses repeated events for the same key within a debounce interval.
+ * <p>
+ * Keys are kept in the order they were last accepted, so the expired ones are always at the head of the map and are
+ * dropped without scanning the keys that are still within the retention. The tracker is not thread-safe; it is only
+ * called from the thread that pulls the part stream.
+ */
+class DebounceTracker {
+
+    private final long debounceMillis;
+    private final long retentionMillis;
+    // in order of last acceptance, oldest first
+    private final LinkedHashMap<String, Long> lastAccepted = new LinkedHashMap<>();
+
+    DebounceTracker(long debounceMillis, long retentionMillis) {
+        this.debounceMillis = debounceMillis;
+        this.retentionMillis = retentionMillis;
+    }
+
+    /**
+     * Accepts the key unless it was already accepted less than the debounce interval ago.
+     *
+     * @return true if the key was accepted
+     */
+    boolean accept(String key, long now) {
+        expire(now);
+
+        var last = lastAccepted.get(key);
+        if (last != null && now - last < debounceMillis) {
+            return false;
+        }
+        // re-inserting moves the key behind all keys accepted before it
+        lastAccepted.remove(key);
+        lastAccepted.put(key, now);
+        return true;
+    }
+
+    int size() {
+        return lastAccepted.size();
+    }
+
+    private void expire(long now) {
+        var oldest = lastAccepted.values().iterator();
+        while (oldest.hasNext() && now - oldest.next() > retentionMillis) {
+            oldest.remove();
+        }
+    }
+}
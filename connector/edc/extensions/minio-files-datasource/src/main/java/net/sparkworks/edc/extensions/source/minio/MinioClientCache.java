@@ -0,0 +1,184 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.source.minio;
+
+import io.minio.MinioClient;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.eclipse.edc.spi.monitor.Monitor;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shares MinIO clients between transfers.
+ * <p>
+ * Transfers against the same endpoint with the same credentials lease the same {@link MinioClient}, and all clients
+ * run on a single OkHttp client, so connections, dispatcher threads and TLS sessions are pooled across transfers
+ * instead of being created per transfer. A client is dropped once it has not been leased for the idle timeout, and
+ * connection and dispatcher usage are periodically reported through the monitor.
+ */
+public class MinioClientCache implements Closeable {
+
+    private static final long HTTP_TIMEOUT_MINUTES = 5;
+    private static final long EVICTION_INTERVAL_SECONDS = 60;
+
+    private final OkHttpClient httpClient;
+    private final Duration clientIdleTimeout;
+    private final Monitor monitor;
+    private final Map<ClientKey, CachedClient> clients = new HashMap<>();
+    private final ScheduledExecutorService maintenance;
+
+    public MinioClientCache(int maxIdleConnections, Duration keepAlive, int maxRequests, int maxRequestsPerHost, Duration clientIdleTimeout, Duration metricsInterval, Monitor monitor) {
+        this.clientIdleTimeout = clientIdleTimeout;
+        this.monitor = monitor;
+
+        var dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+        // same timeouts and protocol as the client MinIO builds by default
+        this.httpClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAlive.toMillis(), TimeUnit.MILLISECONDS))
+                .dispatcher(dispatcher)
+                .connectTimeout(HTTP_TIMEOUT_MINUTES, TimeUnit.MINUTES)
+                .writeTimeout(HTTP_TIMEOUT_MINUTES, TimeUnit.MINUTES)
+                .readTimeout(HTTP_TIMEOUT_MINUTES, TimeUnit.MINUTES)
+                .protocols(List.of(Protocol.HTTP_1_1))
+                .build();
+
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "minio-client-cache");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenance.scheduleWithFixedDelay(this::evictIdleClients, EVICTION_INTERVAL_SECONDS, EVICTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        if (!metricsInterval.isZero()) {
+            maintenance.scheduleAtFixedRate(this::reportUsage, metricsInterval.toMillis(), metricsInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Leases the client for an endpoint and credentials, creating it if needed.
+     * The lease must be closed when the transfer no longer uses the client.
+     */
+    public synchronized Lease acquire(String endpoint, String accessKey, String secretKey) {
+        var key = new ClientKey(endpoint, accessKey, secretKey);
+        var cached = clients.computeIfAbsent(key, it -> {
+            monitor.debug("Creating MinIO client for " + it);
+            return new CachedClient(MinioClient.builder().endpoint(endpoint).credentials(accessKey, secretKey).httpClient(httpClient).build());
+        });
+        cached.leases++;
+        return new Lease(key, cached.client);
+    }
+
+    @Override
+    public void close() {
+        maintenance.shutdownNow();
+        synchronized (this) {
+            clients.clear();
+        }
+        httpClient.dispatcher().executorService().shutdown();
+        httpClient.connectionPool().evictAll();
+    }
+
+    private synchronized void release(ClientKey key) {
+        var cached = clients.get(key);
+        if (cached != null && --cached.leases == 0) {
+            cached.idleSince = System.currentTimeMillis();
+        }
+    }
+
+    private synchronized void evictIdleClients() {
+        var now = System.currentTimeMillis();
+        clients.entrySet().removeIf(entry -> {
+            var cached = entry.getValue();
+            var idle = cached.leases == 0 && now - cached.idleSince >= clientIdleTimeout.toMillis();
+            if (idle) {
+                monitor.debug("Evicting idle MinIO client for " + entry.getKey());
+            }
+            return idle;
+        });
+    }
+
+    private void reportUsage() {
+        int cachedClients;
+        int leases = 0;
+        synchronized (this) {
+            cachedClients = clients.size();
+            for (var cached : clients.values()) {
+                leases += cached.leases;
+            }
+        }
+        var pool = httpClient.connectionPool();
+        var dispatcher = httpClient.dispatcher();
+        monitor.info("MinIO clients: " + cachedClients + " cached, " + leases + " leased; connections: " + pool.connectionCount() + " open, " +
+                pool.idleConnectionCount() + " idle; requests: " + dispatcher.runningCallsCount() + " running, " + dispatcher.queuedCallsCount() + " queued");
+    }
+
+    /**
+     * Use of a shared client by one transfer.
+     */
+    public final class Lease implements Closeable {
+
+        private final ClientKey key;
+        private final MinioClient client;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease(ClientKey key, MinioClient client) {
+            this.key = key;
+            this.client = client;
+        }
+
+        public MinioClient client() {
+            return client;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(key);
+            }
+        }
+    }
+
+    private record ClientKey(String endpoint, String accessKey, String secretKey) {
+
+        @Override
+        public String toString() {
+            // never log the secret key
+            return endpoint + " (access key " + accessKey + ")";
+        }
+    }
+
+    private static final class CachedClient {
+
+        private final MinioClient client;
+        private int leases;
+        private long idleSince;
+
+        CachedClient(MinioClient client) {
+            this.client = client;
+        }
+    }
+}
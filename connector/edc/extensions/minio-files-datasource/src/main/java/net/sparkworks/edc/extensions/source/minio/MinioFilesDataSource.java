@@ -25,12 +25,19 @@ import org.eclipse.edc.spi.monitor.Monitor;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.Spliterator;
 import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
@@ -40,28 +47,112 @@ import static java.util.stream.StreamSupport.stream;
  * Data source that monitors a MinIO bucket for new files and routes them based on extension:
  * - .json files: trigger Piveau Hub Repo API call (not transferred)
  * - .csv files: transferred to subscribers
+ * <p>
+ * New objects are discovered either by listing the bucket every few seconds ({@link DiscoveryMode#POLLING}), by
+ * listing only the keys after the last seen key ({@link DiscoveryMode#INCREMENTAL}), or by subscribing to bucket
+ * notifications ({@link DiscoveryMode#NOTIFICATIONS}). In the last two modes the whole prefix is only listed
+ * periodically, to reconcile modifications and events that may have been missed. Full listings are split by
+ * top-level prefix and run concurrently by a {@link ShardedObjectLister}. With a prefetch window, the next objects
+ * are downloaded by an {@link ObjectPrefetcher} while the sink is still sending the current one.
+ * <p>
+ * The objects seen so far and the listing watermarks are checkpointed to a {@link SeenObjectStore}, so a
+ * restarted transfer resumes from the checkpoint instead of listing the whole prefix again. An object is only
+ * recorded as seen once the sink has read its content to the end, so objects that a crash or a failed read kept
+ * from being sent are found again after a restart; until then, objects handed to the sink are tracked in memory so
+ * they are not emitted twice. With {@link ContentDedup content deduplication}, an object whose content was already
+ * sent under another key is skipped instead of being sent again.
  */
 public class MinioFilesDataSource implements DataSource, Closeable {
     
+    private final MinioClientCache.Lease clientLease;
     private final MinioClient minioClient;
     private final String bucketName;
     private final String prefix;
     private final Monitor monitor;
+    private final DiscoveryMode discoveryMode;
+    private final long reconcileIntervalMs;
+    private final MinioNotificationListener notificationListener;
+    private final SeenObjectStore seenObjects;
+    private final ShardedObjectLister lister;
+    private final ObjectPrefetcher prefetcher;
+    private final ContentDedup contentDedup;
+    // objects handed to the sink that it has not read to the end yet, by object name
+    private final Map<String, Unsettled> unsettled = new ConcurrentHashMap<>();
+    // content keys of unsettled objects, so that copies discovered in the meantime are skipped
+    private final Set<Long> unsettledContent = ConcurrentHashMap.newKeySet();
     
     // Deduplication - track processed files
-    private final Map<String, Long> lastProcessedTimes = new HashMap<>();
+    private final DebounceTracker debounceTracker = new DebounceTracker(DEBOUNCE_MILLIS, DEBOUNCE_RETENTION_MILLIS);
+    
     private static final long POLL_INTERVAL_MS = 5000; // Poll every 5 seconds
     private static final long DEBOUNCE_MILLIS = 1000;
+    private static final long DEBOUNCE_RETENTION_MILLIS = 300000;
+    private static final long CHECKPOINT_INTERVAL_MS = 30000;
+    
+    /**
+     * How new objects are discovered.
+     */
+    public enum DiscoveryMode {
+        /**
+         * List the whole prefix every poll interval.
+         */
+        POLLING,
+        /**
+         * List only keys after the last seen key every poll interval, and the whole prefix only to reconcile.
+         * Suited to buckets whose keys are written in lexicographic order, such as time-stamped uploads.
+         */
+        INCREMENTAL,
+        /**
+         * Subscribe to s3:ObjectCreated:* notifications, and list the prefix only to reconcile missed events.
+         */
+        NOTIFICATIONS
+    }
+    
+    /**
+     * How objects with the same content under different keys are detected.
+     */
+    public enum ContentDedup {
+        /**
+         * Every new or modified key is sent.
+         */
+        OFF,
+        /**
+         * Objects with the etag and size of an object already sent are skipped from the listing, before any GET.
+         * For single-part uploads the etag is the MD5 of the content; multipart etags only match when the same
+         * content was uploaded in the same parts.
+         */
+        ETAG,
+        /**
+         * Like {@link #ETAG} for objects whose etag is the MD5 of their content, which are skipped before any GET.
+         * Multipart objects, whose etag depends on how the content was split into parts, are streamed once to compute
+         * the SHA-256 of their content, and skipped if an object with the same SHA-256 and size was already sent. The
+         * hashing GET saves sink bandwidth but not MinIO egress. A multipart object does not match a single-part
+         * object with the same content, since their keys come from different digests.
+         */
+        SHA256
+    }
     
-    public MinioFilesDataSource(MinioClient minioClient, String bucketName, String prefix, Monitor monitor) {
-        this.minioClient = minioClient;
+    public MinioFilesDataSource(MinioClientCache.Lease clientLease, String bucketName, String prefix, DiscoveryMode discoveryMode, long reconcileIntervalMs, int listingParallelism, int prefetchWindow, ContentDedup contentDedup, SeenObjectStore seenObjects, Monitor monitor) {
+        this.clientLease = clientLease;
+        this.minioClient = clientLease.client();
         this.bucketName = bucketName;
         this.prefix = prefix != null ? prefix : "";
         this.monitor = monitor;
+        this.discoveryMode = discoveryMode;
+        this.reconcileIntervalMs = reconcileIntervalMs;
+        this.seenObjects = seenObjects;
+        this.contentDedup = contentDedup;
+        this.lister = new ShardedObjectLister(minioClient, bucketName, this.prefix, listingParallelism, monitor);
+        this.prefetcher = prefetchWindow > 0 ? new ObjectPrefetcher(minioClient, bucketName, prefetchWindow, object -> new MinioStreamingPart(object, minioClient, bucketName), monitor) : null;
+        this.notificationListener = discoveryMode == DiscoveryMode.NOTIFICATIONS ? new MinioNotificationListener(minioClient, bucketName, this.prefix, monitor) : null;
         
         monitor.info("Creating MinioFilesDataSource");
         monitor.info("  Bucket: " + bucketName);
         monitor.info("  Prefix: " + (this.prefix.isEmpty() ? "(root)" : this.prefix));
+        monitor.info("  Discovery: " + discoveryMode + (discoveryMode != DiscoveryMode.POLLING ? " (reconcile every " + reconcileIntervalMs + " ms)" : ""));
+        monitor.info("  Listing parallelism: " + listingParallelism);
+        monitor.info("  Prefetch window: " + (prefetchWindow > 0 ? prefetchWindow + " objects" : "disabled"));
+        monitor.info("  Content deduplication: " + contentDedup);
         monitor.info("  JSON files will trigger Piveau Hub Repo API");
         monitor.info("  CSV files will be transferred to subscribers");
         
@@ -69,35 +160,92 @@ public class MinioFilesDataSource implements DataSource, Closeable {
     
     @Override
     public StreamResult<Stream<Part>> openPartStream() {
-        Stream<Part> stream = openObjectStream().filter(Objects::nonNull) //empty
+        Stream<MinioObject> objects = openObjectStream().filter(Objects::nonNull) //empty
                 .filter(this::shouldProcess)  // Debounce
-                .map(item -> new MinioStreamingPart(item, minioClient, bucketName));
+                .filter(this::isNewContent);
         
-        return StreamResult.success(stream);
+        Stream<MinioObjectPart> parts = prefetcher != null
+                ? prefetcher.prefetch(objects)
+                : objects.map(object -> new MinioStreamingPart(object, minioClient, bucketName));
+        return StreamResult.success(parts.map(SettlingPart::new));
     }
     
     /**
      * Check if this file should be processed (debounce duplicate events)
      */
-    private boolean shouldProcess(Item item) {
-        String objectName = item.objectName();
-        long now = System.currentTimeMillis();
+    private boolean shouldProcess(MinioObject object) {
+        if (!debounceTracker.accept(object.objectName(), System.currentTimeMillis())) {
+            monitor.debug("SKIPPING duplicate event for: " + object.objectName());
+            settle(object);
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Check if the content of this object was not already sent under another key
+     */
+    private boolean isNewContent(MinioObject object) {
+        if (contentDedup == ContentDedup.OFF || contentDedup == ContentDedup.ETAG && object.etag() == null) {
+            return true;
+        }
         
-        synchronized (lastProcessedTimes) {
-            Long lastProcessed = lastProcessedTimes.get(objectName);
-            
-            if (lastProcessed != null && (now - lastProcessed) < DEBOUNCE_MILLIS) {
-                monitor.debug("SKIPPING duplicate event for: " + objectName);
-                return false;
+        long contentKey;
+        if (contentDedup == ContentDedup.SHA256 && !object.hasMd5Etag()) {
+            // only objects whose etag says nothing about their content are hashed, the others are keyed on it
+            try {
+                contentKey = SeenObjectStore.contentKey(sha256(object.objectName()), object.size());
+            } catch (Exception e) {
+                monitor.warning("Failed to hash MinIO object " + object.objectName() + ", sending it without content deduplication: " + e.getMessage());
+                return true;
             }
-            
-            lastProcessedTimes.put(objectName, now);
-            
-            // Clean up old entries (older than 5 minutes)
-            lastProcessedTimes.entrySet().removeIf(entry -> (now - entry.getValue()) > 300000);
-            
-            return true;
+        } else {
+            contentKey = SeenObjectStore.contentKey(object);
+        }
+        
+        if (seenObjects.containsContent(contentKey) || !unsettledContent.add(contentKey)) {
+            monitor.info("SKIPPING " + object.objectName() + ": same content as an object already sent");
+            settle(object);
+            return false;
         }
+        // the content key is recorded along with the object once the sink has read it
+        unsettled.computeIfPresent(object.objectName(), (name, pending) -> pending.object().equals(object) ? new Unsettled(object, contentKey) : pending);
+        return true;
+    }
+    
+    /**
+     * Records an object, and the content key it was sent with if any, as seen. Nothing is recorded when a newer
+     * version of the object has been discovered in the meantime, since that version is still to be sent.
+     */
+    private void settle(MinioObject object) {
+        var current = unsettled.get(object.objectName());
+        if (current != null && !current.object().equals(object)) {
+            return;
+        }
+        // recorded before it stops being unsettled, so that a listing in between does not emit it again
+        seenObjects.update(object);
+        if (current != null) {
+            if (current.contentKey() != 0) {
+                seenObjects.recordContent(current.contentKey());
+                unsettledContent.remove(current.contentKey());
+            }
+            unsettled.remove(object.objectName(), current);
+        }
+    }
+    
+    /**
+     * Streams a MinIO object through SHA-256 without keeping its content
+     */
+    private byte[] sha256(String objectName) throws Exception {
+        var digest = MessageDigest.getInstance("SHA-256");
+        try (InputStream stream = minioClient.getObject(GetObjectArgs.builder().bucket(bucketName).object(objectName).build())) {
+            var buffer = new byte[64 * 1024];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest.digest();
     }
     
     /**
@@ -110,91 +258,178 @@ public class MinioFilesDataSource implements DataSource, Closeable {
     }
     
     @NotNull
-    private Stream<Item> openObjectStream() {
-        return stream(new MinioObjectSpliterator(minioClient, bucketName, prefix, monitor), false);
+    private Stream<MinioObject> openObjectStream() {
+        return stream(new MinioObjectSpliterator(), false);
     }
     
     @Override
     public void close() {
         monitor.info("Closing MinioFilesDataSource");
+        if (notificationListener != null) {
+            notificationListener.close();
+        }
+        lister.close();
+        if (prefetcher != null) {
+            prefetcher.close();
+        }
+        seenObjects.close();
+        clientLease.close();
+    }
+    
+    private record Unsettled(MinioObject object, long contentKey) {
+    }
+    
+    /**
+     * Part handed to the sink, which settles its object once the sink has read the content to the end and closed
+     * the stream.
+     */
+    private class SettlingPart implements Part {
+        
+        private final MinioObjectPart part;
+        
+        SettlingPart(MinioObjectPart part) {
+            this.part = part;
+        }
+        
+        @Override
+        public String name() {
+            return part.name();
+        }
+        
+        @Override
+        public long size() {
+            return part.size();
+        }
+        
+        @Override
+        public InputStream openStream() {
+            return new FilterInputStream(part.openStream()) {
+                
+                private long position;
+                private boolean ended;
+                
+                @Override
+                public int read() throws IOException {
+                    var read = super.read();
+                    if (read == -1) {
+                        ended = true;
+                    } else {
+                        position++;
+                    }
+                    return read;
+                }
+                
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    var read = super.read(b, off, len);
+                    if (read == -1) {
+                        ended = true;
+                    } else {
+                        position += read;
+                    }
+                    return read;
+                }
+                
+                @Override
+                public long skip(long n) throws IOException {
+                    var skipped = super.skip(n);
+                    position += skipped;
+                    return skipped;
+                }
+                
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    if (ended || part.size() >= 0 && position >= part.size()) {
+                        settle(part.object());
+                    }
+                }
+            };
+        }
     }
     
     /**
      * Part representing a CSV file from MinIO to be transferred
      */
-    private record MinioStreamingPart(Item item, MinioClient minioClient, String bucketName) implements Part {
+    private record MinioStreamingPart(MinioObject object, MinioClient minioClient, String bucketName) implements MinioObjectPart {
         
         @Override
         public String name() {
-            return item.objectName();
+            return object.objectName();
+        }
+        
+        @Override
+        public long size() {
+            return object.size();
         }
         
         @Override
         public InputStream openStream() {
             try {
-                return minioClient.getObject(GetObjectArgs.builder().bucket(bucketName).object(item.objectName()).build());
+                return minioClient.getObject(GetObjectArgs.builder().bucket(bucketName).object(object.objectName()).build());
             } catch (Exception e) {
-                throw new RuntimeException("Failed to open MinIO object: " + item.objectName(), e);
+                throw new RuntimeException("Failed to open MinIO object: " + object.objectName(), e);
             }
         }
     }
     
     /**
-     * Spliterator that polls MinIO bucket for new objects
+     * Spliterator that emits new or modified objects of the bucket, discovered by polling or by notifications
      */
-    private static class MinioObjectSpliterator extends Spliterators.AbstractSpliterator<Item> {
+    private class MinioObjectSpliterator extends Spliterators.AbstractSpliterator<MinioObject> {
 
-        private final MinioClient minioClient;
-        private final String bucketName;
-        private final String prefix;
-        private final Monitor monitor;
-        private final Map<String, Item> seenObjects = new HashMap<>();
+        private final Deque<MinioObject> changes = new ArrayDeque<>();
         private boolean initialized = false;
+        private long nextReconcile;
+        private long nextCheckpoint;
 
-        MinioObjectSpliterator(MinioClient minioClient, String bucketName, String prefix, Monitor monitor) {
+        MinioObjectSpliterator() {
             super(Long.MAX_VALUE, Spliterator.ORDERED);
-            this.minioClient = minioClient;
-            this.bucketName = bucketName;
-            this.prefix = prefix;
-            this.monitor = monitor;
         }
 
         /**
-         * Initialize by loading all existing objects into seenObjects map
+         * Initialize by loading all existing objects into seenObjects
          * to avoid triggering events for files that already exist.
+         * The notification subscription is started first, so objects created during the listing are not missed.
+         * When a checkpoint exists, it replaces the listing; objects created since the checkpoint are then
+         * picked up by the next listing after the watermark.
          */
         private void initialize() {
             if (initialized) {
                 return;
             }
 
-            try {
-                monitor.info("Initializing MinIO data source - loading existing objects to avoid duplicate events");
-
-                Iterable<Result<Item>> results = minioClient.listObjects(
-                    ListObjectsArgs.builder()
-                        .bucket(bucketName)
-                        .prefix(prefix)
-                        .recursive(true)
-                        .build()
-                );
-
-                int count = 0;
-                for (Result<Item> result : results) {
-                    Item item = result.get();
-                    String objectName = item.objectName();
+            if (notificationListener != null) {
+                notificationListener.start();
+            }
+            nextReconcile = System.currentTimeMillis() + reconcileIntervalMs;
+            nextCheckpoint = System.currentTimeMillis() + CHECKPOINT_INTERVAL_MS;
 
-                    // Skip directory markers
-                    if (objectName.endsWith("/")) {
-                        continue;
+            if (seenObjects.restore()) {
+                monitor.info("Resuming MinIO data source from checkpoint with " + seenObjects.size() + " seen objects");
+                initialized = true;
+                if (notificationListener != null) {
+                    try {
+                        listNewObjects();
+                    } catch (Exception e) {
+                        monitor.warning("Failed to list objects created since the checkpoint: " + e.getMessage());
+                        nextReconcile = System.currentTimeMillis();
                     }
-
-                    seenObjects.put(objectName, item);
-                    count++;
                 }
+                return;
+            }
 
-                monitor.info("Initialized with " + count + " existing objects - these will not trigger events");
+            try {
+                monitor.info("Initializing MinIO data source - loading existing objects to avoid duplicate events");
+
+                lister.list(object -> {
+                    seenObjects.update(object);
+                    seenObjects.advanceWatermark(prefix, object.objectName());
+                });
+
+                monitor.info("Initialized with " + seenObjects.size() + " existing objects - these will not trigger events");
                 initialized = true;
+                seenObjects.checkpoint();
 
             } catch (Exception e) {
                 monitor.warning("Failed to initialize MinIO data source, will treat all files as new: " + e.getMessage());
@@ -204,56 +439,134 @@ public class MinioFilesDataSource implements DataSource, Closeable {
         }
         
         @Override
-        public boolean tryAdvance(Consumer<? super Item> action) {
-            try {
-                // Initialize on first call to load existing objects
-                initialize();
+        public boolean tryAdvance(Consumer<? super MinioObject> action) {
+            // Initialize on first call to load existing objects
+            initialize();
 
-                // List objects in bucket
-                Iterable<Result<Item>> results = minioClient.listObjects(ListObjectsArgs.builder().bucket(bucketName).prefix(prefix).recursive(true).build());
-                
-                // Check for new or modified objects
-                boolean foundNew = false;
-                for (Result<Item> result : results) {
-                    Item item = result.get();
-                    String objectName = item.objectName();
-                    
-                    // Skip if it's a directory marker
-                    if (objectName.endsWith("/")) {
-                        continue;
-                    }
-                    
-                    Item seenItem = seenObjects.get(objectName);
-                    
-                    // New object or modified object (different etag or size)
-                    if (seenItem == null || !Objects.equals(seenItem.etag(), item.etag()) || seenItem.size() != item.size()) {
+            while (changes.isEmpty()) {
+                checkpointIfDue();
+                try {
+                    if (notificationListener == null) {
+                        poll();
                         
-                        monitor.debug("New/modified object detected: " + objectName);
-                        seenObjects.put(objectName, item);
-                        action.accept(item);
-                        foundNew = true;
+                        // If no new objects, wait before next poll
+                        if (changes.isEmpty()) {
+                            Thread.sleep(POLL_INTERVAL_MS);
+                        }
+                    } else {
+                        awaitNotification();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("MinIO polling interrupted", e);
+                } catch (Exception e) {
+                    monitor.severe("Error polling MinIO bucket", e);
+                    try {
+                        Thread.sleep(POLL_INTERVAL_MS);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException("MinIO polling interrupted", ex);
                     }
                 }
+            }
+            
+            action.accept(changes.poll());
+            return true;
+        }
+        
+        private void checkpointIfDue() {
+            var now = System.currentTimeMillis();
+            if (now >= nextCheckpoint) {
+                nextCheckpoint = now + CHECKPOINT_INTERVAL_MS;
+                seenObjects.checkpoint();
+            }
+        }
+        
+        /**
+         * Lists the bucket once: only the keys after the watermark in incremental mode, unless a full
+         * reconcile is due, and the whole prefix otherwise.
+         */
+        private void poll() throws Exception {
+            var now = System.currentTimeMillis();
+            if (discoveryMode == DiscoveryMode.INCREMENTAL && now < nextReconcile) {
+                listNewObjects();
+            } else {
+                nextReconcile = now + reconcileIntervalMs;
+                listChanges();
+            }
+        }
+        
+        /**
+         * Waits for the next notification, or reconciles with a full listing when it is due or when events may
+         * have been missed.
+         */
+        private void awaitNotification() throws Exception {
+            var now = System.currentTimeMillis();
+            if (notificationListener.consumeMissedEvents() || now >= nextReconcile) {
+                monitor.debug("Reconciling MinIO bucket " + bucketName + " with a full listing");
+                nextReconcile = now + reconcileIntervalMs;
+                listChanges();
+                return;
+            }
+            
+            var object = notificationListener.poll(nextReconcile - now, TimeUnit.MILLISECONDS);
+            if (object != null) {
+                detectChange(object);
+            }
+        }
+        
+        /**
+         * Lists the keys after the watermark and records them as new objects. The cost of the listing depends
+         * on the number of new keys, not on the size of the bucket.
+         */
+        private void listNewObjects() throws Exception {
+            for (Result<Item> result : listObjects(seenObjects.watermark(prefix))) {
+                Item item = result.get();
+                String objectName = item.objectName();
                 
-                // If no new objects, wait before next poll
-                if (!foundNew) {
-                    Thread.sleep(POLL_INTERVAL_MS);
+                if (objectName.endsWith("/")) {
+                    continue;
                 }
                 
-                return true;
-                
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new RuntimeException("MinIO polling interrupted", e);
-            } catch (Exception e) {
-                monitor.severe("Error polling MinIO bucket", e);
-                try {
-                    Thread.sleep(POLL_INTERVAL_MS);
-                } catch (InterruptedException ex) {
-                    Thread.currentThread().interrupt();
+                detectChange(new MinioObject(objectName, item.etag(), item.size()));
+            }
+        }
+        
+        /**
+         * Lists the whole prefix, sharded by top-level prefix, and records new or modified objects
+         */
+        private void listChanges() throws Exception {
+            lister.list(this::detectChange);
+        }
+        
+        /**
+         * Emits an object unless this version was already sent or is still being sent. It is recorded as seen
+         * only once the sink has read it; until then it is kept as unsettled. The watermark still advances
+         * right away, so objects before it that a crash kept from being sent are found by the next reconcile.
+         */
+        private void detectChange(MinioObject object) {
+            // New object or modified object (different etag or size)
+            var emitted = new boolean[1];
+            unsettled.compute(object.objectName(), (name, pending) -> {
+                if (pending != null && pending.object().equals(object) || seenObjects.contains(object)) {
+                    return pending;
                 }
-                return true;
+                emitted[0] = true;
+                return new Unsettled(object, 0);
+            });
+            if (emitted[0]) {
+                monitor.debug("New/modified object detected: " + object.objectName());
+                changes.add(object);
+            }
+            seenObjects.advanceWatermark(prefix, object.objectName());
+        }
+        
+        private Iterable<Result<Item>> listObjects(String startAfter) {
+            var args = ListObjectsArgs.builder().bucket(bucketName).prefix(prefix).recursive(true);
+            if (startAfter != null) {
+                args.startAfter(startAfter);
             }
+            return minioClient.listObjects(args.build());
         }
     }
 }
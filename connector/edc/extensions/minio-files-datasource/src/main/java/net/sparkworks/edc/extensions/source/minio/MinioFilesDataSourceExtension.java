@@ -20,6 +20,9 @@ import org.eclipse.edc.spi.system.ServiceExtension;
 import org.eclipse.edc.spi.system.ServiceExtensionContext;
 import org.eclipse.edc.runtime.metamodel.annotation.Setting;
 
+import java.nio.file.Path;
+import java.time.Duration;
+
 /**
  * Extension that registers a MinIO-based streaming data source.
  * Polls a MinIO bucket for new objects.
@@ -32,6 +35,41 @@ public class MinioFilesDataSourceExtension implements ServiceExtension {
     @Setting(value = "API key for Piveau Hub Repo")
     private static final String PIVEAU_API_KEY = "edc.external.api.key";
     
+    @Setting(value = "Directory where MinIO transfers checkpoint the objects they have seen")
+    private static final String STATE_DIR = "edc.minio.state.dir";
+    
+    @Setting(value = "Number of days the checkpoint of an ended MinIO transfer is kept for it to resume from")
+    private static final String STATE_RETENTION_DAYS = "edc.minio.state.retention.days";
+    
+    @Setting(value = "Maximum size in megabytes of the state directory; beyond it the checkpoints of ended transfers are deleted, least recently written first")
+    private static final String STATE_MAX_MB = "edc.minio.state.max.mb";
+    
+    @Setting(value = "Number of days the content key of a sent MinIO object is remembered for content deduplication")
+    private static final String DEDUP_RETENTION_DAYS = "edc.minio.dedup.retention.days";
+    
+    @Setting(value = "Maximum number of content keys of sent MinIO objects remembered per transfer")
+    private static final String DEDUP_MAX_ENTRIES = "edc.minio.dedup.max.entries";
+    
+    @Setting(value = "Maximum number of idle HTTP connections kept open to MinIO, shared by all transfers")
+    private static final String MAX_IDLE_CONNECTIONS = "edc.minio.http.max.idle.connections";
+    
+    @Setting(value = "Seconds an idle HTTP connection to MinIO is kept open")
+    private static final String KEEP_ALIVE_SECONDS = "edc.minio.http.keep.alive.seconds";
+    
+    @Setting(value = "Maximum number of concurrent HTTP requests to MinIO, shared by all transfers")
+    private static final String MAX_REQUESTS = "edc.minio.http.max.requests";
+    
+    @Setting(value = "Maximum number of concurrent HTTP requests to a single MinIO host")
+    private static final String MAX_REQUESTS_PER_HOST = "edc.minio.http.max.requests.per.host";
+    
+    @Setting(value = "Seconds a MinIO client no transfer uses is kept before it is evicted")
+    private static final String CLIENT_IDLE_SECONDS = "edc.minio.client.idle.seconds";
+    
+    @Setting(value = "Seconds between MinIO connection pool usage reports, 0 to disable them")
+    private static final String METRICS_INTERVAL_SECONDS = "edc.minio.metrics.interval.seconds";
+    
+    private MinioClientCache clientCache;
+    
     @Override
     public String name() {
         return "Piveau MinIO Streaming Data Source";
@@ -44,10 +82,32 @@ public class MinioFilesDataSourceExtension implements ServiceExtension {
     public void initialize(ServiceExtensionContext context) {
         var monitor = context.getMonitor();
         
+        var stateDirectory = Path.of(context.getSetting(STATE_DIR, "minio-state"));
+        var checkpoints = new CheckpointStore(stateDirectory, Duration.ofDays(context.getSetting(STATE_RETENTION_DAYS, 30)), context.getSetting(STATE_MAX_MB, 1024L) * 1024 * 1024,
+                Duration.ofDays(context.getSetting(DEDUP_RETENTION_DAYS, 30)), context.getSetting(DEDUP_MAX_ENTRIES, 1_000_000), monitor);
+        // clears out the checkpoints of transfers that ended before a restart
+        checkpoints.sweep();
+        clientCache = new MinioClientCache(
+                context.getSetting(MAX_IDLE_CONNECTIONS, 50),
+                Duration.ofSeconds(context.getSetting(KEEP_ALIVE_SECONDS, 300)),
+                context.getSetting(MAX_REQUESTS, 256),
+                context.getSetting(MAX_REQUESTS_PER_HOST, 64),
+                Duration.ofSeconds(context.getSetting(CLIENT_IDLE_SECONDS, 600)),
+                Duration.ofSeconds(context.getSetting(METRICS_INTERVAL_SECONDS, 60)),
+                monitor);
+        
         // Register MinIO-based data source factory
-        pipelineService.registerFactory(new MinioFilesDataSourceFactory(monitor));
+        pipelineService.registerFactory(new MinioFilesDataSourceFactory(monitor, checkpoints, clientCache));
         
         monitor.info("✓ Piveau MinIO Streaming Data Source registered");
         monitor.info("  Type: MinioStreaming");
+        monitor.info("  Checkpoints: " + stateDirectory.toAbsolutePath());
+    }
+    
+    @Override
+    public void shutdown() {
+        if (clientCache != null) {
+            clientCache.close();
+        }
     }
 }
@@ -14,7 +14,6 @@
 
 package net.sparkworks.edc.extensions.source.minio;
 
-import io.minio.MinioClient;
 import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
 import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSourceFactory;
 import org.eclipse.edc.spi.monitor.Monitor;
@@ -22,12 +21,22 @@ import org.eclipse.edc.spi.result.Result;
 import org.eclipse.edc.spi.types.domain.transfer.DataFlowStartMessage;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Optional;
+
 public class MinioFilesDataSourceFactory implements DataSourceFactory {
     
+    private static final String DEFAULT_RECONCILE_INTERVAL_MS = "300000";
+    private static final String DEFAULT_LISTING_PARALLELISM = "4";
+    private static final String DEFAULT_PREFETCH_WINDOW = "0";
+    
     private final Monitor monitor;
+    private final CheckpointStore checkpoints;
+    private final MinioClientCache clientCache;
     
-    public MinioFilesDataSourceFactory(Monitor monitor) {
+    MinioFilesDataSourceFactory(Monitor monitor, CheckpointStore checkpoints, MinioClientCache clientCache) {
         this.monitor = monitor;
+        this.checkpoints = checkpoints;
+        this.clientCache = clientCache;
     }
     
     @Override
@@ -45,16 +54,32 @@ public class MinioFilesDataSourceFactory implements DataSourceFactory {
         String accessKey = sourceDataAddress.getStringProperty("accessKey");
         String secretKey = sourceDataAddress.getStringProperty("secretKey");
         String prefix = sourceDataAddress.getStringProperty("prefix", "");
+        var discoveryMode = MinioFilesDataSource.DiscoveryMode.valueOf(sourceDataAddress.getStringProperty("discoveryMode", "polling").toUpperCase());
+        long reconcileIntervalMs = Long.parseLong(sourceDataAddress.getStringProperty("reconcileIntervalMs", DEFAULT_RECONCILE_INTERVAL_MS));
+        int listingParallelism = Integer.parseInt(sourceDataAddress.getStringProperty("listingParallelism", DEFAULT_LISTING_PARALLELISM));
+        int prefetchWindow = Integer.parseInt(sourceDataAddress.getStringProperty("prefetchWindow", DEFAULT_PREFETCH_WINDOW));
+        var contentDedup = MinioFilesDataSource.ContentDedup.valueOf(sourceDataAddress.getStringProperty("contentDedup", "off").toUpperCase());
         
         monitor.info("Creating MinioFilesDataSource");
         monitor.info("  Endpoint: " + endpoint);
         monitor.info("  Bucket: " + bucketName);
         monitor.info("  Prefix: " + (prefix.isEmpty() ? "(root)" : prefix));
         
-        // Create MinIO client
-        MinioClient minioClient = MinioClient.builder().endpoint(endpoint).credentials(accessKey, secretKey).build();
+        // Lease the MinIO client shared by all transfers against this endpoint with these credentials
+        var clientLease = clientCache.acquire(endpoint, accessKey, secretKey);
         
-        return new MinioFilesDataSource(minioClient, bucketName, prefix, monitor);
+        return new MinioFilesDataSource(clientLease, bucketName, prefix, discoveryMode, reconcileIntervalMs, listingParallelism, prefetchWindow, contentDedup, openSeenObjectStore(dataFlowStartMessage), monitor);
+    }
+    
+    /**
+     * Creates the seen-object store of a transfer. The checkpoint is keyed by the transfer process id,
+     * so a restarted transfer resumes from its own checkpoint, while other transfers over the same bucket keep their own.
+     * Closing the data source hands the checkpoint back to the store, which deletes it once it has expired or no
+     * longer fits the state directory.
+     */
+    private SeenObjectStore openSeenObjectStore(DataFlowStartMessage request) {
+        var processId = Optional.ofNullable(request.getProcessId()).orElse(request.getId());
+        return checkpoints.open(processId);
     }
     
     @Override
@@ -80,6 +105,34 @@ public class MinioFilesDataSourceFactory implements DataSourceFactory {
             return Result.failure("MinIO secretKey is required");
         }
         
+        String discoveryMode = sourceDataAddress.getStringProperty("discoveryMode", "polling");
+        try {
+            MinioFilesDataSource.DiscoveryMode.valueOf(discoveryMode.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Result.failure("Unsupported MinIO discoveryMode: " + discoveryMode);
+        }
+        
+        try {
+            if (Long.parseLong(sourceDataAddress.getStringProperty("reconcileIntervalMs", DEFAULT_RECONCILE_INTERVAL_MS)) < 1) {
+                return Result.failure("MinIO reconcileIntervalMs must be at least 1");
+            }
+            if (Integer.parseInt(sourceDataAddress.getStringProperty("listingParallelism", DEFAULT_LISTING_PARALLELISM)) < 1) {
+                return Result.failure("MinIO listingParallelism must be at least 1");
+            }
+            if (Integer.parseInt(sourceDataAddress.getStringProperty("prefetchWindow", DEFAULT_PREFETCH_WINDOW)) < 0) {
+                return Result.failure("MinIO prefetchWindow must not be negative, 0 disables prefetching");
+            }
+        } catch (NumberFormatException e) {
+            return Result.failure("Invalid MinIO address: " + e.getMessage());
+        }
+        
+                String contentDedup = sourceDataAddress.getStringProperty("contentDedup", "off");
+        try {
+            MinioFilesDataSource.ContentDedup.valueOf(contentDedup.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Result.failure("Unsupported MinIO contentDedup: " + contentDedup);
+        }
+        
         return Result.success();
     }
 }
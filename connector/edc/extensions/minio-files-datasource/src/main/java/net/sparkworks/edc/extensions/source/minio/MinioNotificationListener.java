@@ -0,0 +1,139 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.source.minio;
+
+import io.minio.CloseableIterator;
+import io.minio.ListenBucketNotificationArgs;
+import io.minio.MinioClient;
+import io.minio.Result;
+import io.minio.messages.NotificationRecords;
+import org.eclipse.edc.spi.monitor.Monitor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Subscribes to s3:ObjectCreated:* bucket notifications of a MinIO bucket on a background thread.
+ * <p>
+ * Notifications are queued for the data source to consume. Whenever the subscription is interrupted, or a
+ * notification has to be dropped because the queue is full, events may have been missed; the data source is
+ * told so through {@link #consumeMissedEvents()} and reconciles with a full listing. The subscription is
+ * re-established automatically until the listener is closed.
+ */
+class MinioNotificationListener implements Closeable {
+
+    private static final String[] OBJECT_CREATED_EVENTS = {"s3:ObjectCreated:*"};
+    private static final int QUEUE_CAPACITY = 10_000;
+    private static final long RECONNECT_DELAY_MS = 5000;
+
+    private final MinioClient minioClient;
+    private final String bucketName;
+    private final String prefix;
+    private final Monitor monitor;
+    private final BlockingQueue<MinioObject> notifications = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicBoolean missedEvents = new AtomicBoolean();
+    private final Thread thread;
+    private volatile CloseableIterator<Result<NotificationRecords>> subscription;
+    private volatile boolean closed;
+
+    MinioNotificationListener(MinioClient minioClient, String bucketName, String prefix, Monitor monitor) {
+        this.minioClient = minioClient;
+        this.bucketName = bucketName;
+        this.prefix = prefix;
+        this.monitor = monitor;
+        this.thread = new Thread(this::listen, "minio-notifications-" + bucketName);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Next created object, or null if none was notified within the timeout.
+     */
+    MinioObject poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return notifications.poll(timeout, unit);
+    }
+
+    /**
+     * Whether events may have been missed since the last call.
+     */
+    boolean consumeMissedEvents() {
+        return missedEvents.getAndSet(false);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        var current = subscription;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                monitor.debug("Failed to close MinIO notification subscription: " + e.getMessage());
+            }
+        }
+        thread.interrupt();
+    }
+
+    private void listen() {
+        while (!closed) {
+            var args = ListenBucketNotificationArgs.builder().bucket(bucketName).prefix(prefix).suffix("").events(OBJECT_CREATED_EVENTS).build();
+            try (var iterator = minioClient.listenBucketNotification(args)) {
+                subscription = iterator;
+                monitor.info("Subscribed to object notifications of bucket " + bucketName);
+                while (!closed && iterator.hasNext()) {
+                    var records = iterator.next().get();
+                    if (records.events() == null) {
+                        continue;
+                    }
+                    for (var event : records.events()) {
+                        // keys in S3 event notifications are URL-encoded
+                        var objectName = URLDecoder.decode(event.objectName(), StandardCharsets.UTF_8);
+                        if (objectName.endsWith("/")) {
+                            continue;
+                        }
+                        if (!notifications.offer(new MinioObject(objectName, event.etag(), event.objectSize()))) {
+                            missedEvents.set(true);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                if (!closed) {
+                    monitor.warning("MinIO notification subscription for bucket " + bucketName + " failed: " + e.getMessage());
+                }
+            } finally {
+                subscription = null;
+            }
+
+            if (!closed) {
+                missedEvents.set(true);
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.source.minio;
+
+import java.util.regex.Pattern;
+
+/**
+ * Version of an object in a MinIO bucket, as seen in a listing or a bucket notification.
+ * Two versions of the same object are considered different when their etag or size differ.
+ */
+record MinioObject(String objectName, String etag, long size) {
+
+    private static final Pattern MD5 = Pattern.compile("[0-9a-fA-F]{32}");
+
+    MinioObject {
+        // listings and notifications do not agree on whether etags are quoted
+        etag = etag != null ? etag.replace("\"", "") : null;
+    }
+
+    /**
+     * Whether the etag looks like the MD5 of the content, as it is for single-part uploads. Multipart etags are the
+     * MD5 of the part MD5s followed by {@code -} and the number of parts, so they tell nothing about the content.
+     */
+    boolean hasMd5Etag() {
+        return etag != null && MD5.matcher(etag).matches();
+    }
+}
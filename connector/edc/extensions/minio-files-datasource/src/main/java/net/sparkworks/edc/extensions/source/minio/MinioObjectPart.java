@@ -0,0 +1,28 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.source.minio;
+
+import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSource;
+
+/**
+ * Part created for a version of a MinIO object, whether it is read directly from MinIO or was prefetched.
+ */
+interface MinioObjectPart extends DataSource.Part {
+
+    /**
+     * The object version the content of this part belongs to.
+     */
+    MinioObject object();
+}
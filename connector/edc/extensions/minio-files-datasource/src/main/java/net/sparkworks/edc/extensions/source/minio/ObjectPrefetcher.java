@@ -0,0 +1,407 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.source.minio;
+
+import io.minio.GetObjectArgs;
+import io.minio.MinioClient;
+import org.eclipse.edc.spi.monitor.Monitor;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static java.util.stream.StreamSupport.stream;
+
+/**
+ * Downloads the next objects of a part stream ahead of the sink.
+ * <p>
+ * A producer thread pulls objects from the discovery stream and starts fetching each of them as soon as it is
+ * discovered, keeping at most {@code window} fetched or in-flight parts ahead of the sink. Small objects are buffered
+ * in memory and larger ones are spilled to temporary files, each with a single GET on the window's threads. Large
+ * objects are downloaded as ranged GETs conditioned on the listed etag, on a separate pool of
+ * {@value #MAX_CONCURRENT_RANGES} threads shared by all large objects of the window, so that the ranges of one object
+ * cannot take the threads of the others. At most {@code window} plus {@value #MAX_CONCURRENT_RANGES} GETs are therefore
+ * in flight. Parts are handed to the sink in discovery order. An object that cannot be prefetched falls back to a
+ * part that is read directly from MinIO when the sink opens it.
+ * <p>
+ * A spill file is deleted when the stream opened on its part is closed, when the part is dropped without being
+ * opened and becomes unreachable, or at the latest when the prefetcher is closed.
+ */
+class ObjectPrefetcher implements Closeable {
+
+    private static final long MEMORY_BUFFER_LIMIT = 8L * 1024 * 1024;
+    private static final long RANGED_GET_THRESHOLD = 64L * 1024 * 1024;
+    private static final long RANGE_SIZE = 16L * 1024 * 1024;
+    private static final int MAX_CONCURRENT_RANGES = 4;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final Cleaner SPILL_FILE_CLEANER = Cleaner.create();
+    // identity marker ending the prefetched stream
+    private static final CompletableFuture<MinioObjectPart> END_OF_STREAM = CompletableFuture.completedFuture(null);
+
+    private final MinioClient minioClient;
+    private final String bucketName;
+    private final Function<MinioObject, MinioObjectPart> directPart;
+    private final Monitor monitor;
+    private final ExecutorService executor;
+    private final ExecutorService rangeExecutor;
+    private final BlockingQueue<CompletableFuture<MinioObjectPart>> prefetched;
+    private final Set<Path> spillFiles = ConcurrentHashMap.newKeySet();
+    private volatile Thread producer;
+    private volatile boolean closed;
+
+    /**
+     * Creates a prefetcher.
+     *
+     * @param window number of parts fetched ahead of the sink, which is also the number of concurrent whole-object GETs
+     * @param directPart creates the part read directly from MinIO, used when prefetching an object fails
+     */
+    ObjectPrefetcher(MinioClient minioClient, String bucketName, int window, Function<MinioObject, MinioObjectPart> directPart, Monitor monitor) {
+        this.minioClient = minioClient;
+        this.bucketName = bucketName;
+        this.directPart = directPart;
+        this.monitor = monitor;
+        this.prefetched = new ArrayBlockingQueue<>(window);
+        var threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(window, runnable -> {
+            var thread = new Thread(runnable, "minio-prefetch-" + bucketName + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        var rangeThreadCount = new AtomicInteger();
+        this.rangeExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT_RANGES, runnable -> {
+            var thread = new Thread(runnable, "minio-prefetch-range-" + bucketName + "-" + rangeThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts prefetching the given objects.
+     *
+     * @return the prefetched parts, in the order of the objects
+     */
+    synchronized Stream<MinioObjectPart> prefetch(Stream<MinioObject> objects) {
+        if (producer != null) {
+            throw new IllegalStateException("Objects of bucket " + bucketName + " are already being prefetched");
+        }
+        producer = new Thread(() -> produce(objects), "minio-prefetch-producer-" + bucketName);
+        producer.setDaemon(true);
+        producer.start();
+        return stream(new PrefetchedSpliterator(), false);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        var thread = producer;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        executor.shutdownNow();
+        rangeExecutor.shutdownNow();
+        prefetched.clear();
+        prefetched.offer(END_OF_STREAM);
+        for (var file : spillFiles) {
+            deleteSpillFile(file);
+        }
+    }
+
+    private void produce(Stream<MinioObject> objects) {
+        try {
+            var iterator = objects.iterator();
+            while (!closed && iterator.hasNext()) {
+                prefetched.put(fetch(iterator.next()));
+            }
+        } catch (InterruptedException e) {
+            monitor.debug("MinIO prefetching stopped for bucket " + bucketName);
+        } catch (RuntimeException e) {
+            if (closed) {
+                monitor.debug("MinIO prefetching stopped for bucket " + bucketName);
+            } else {
+                monitor.severe("MinIO prefetching failed for bucket " + bucketName, e);
+            }
+        } finally {
+            // on close, the end marker is queued by close() itself
+            if (!closed) {
+                try {
+                    prefetched.put(END_OF_STREAM);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private CompletableFuture<MinioObjectPart> fetch(MinioObject object) {
+        CompletableFuture<MinioObjectPart> fetched;
+        try {
+            if (object.size() >= 0 && object.size() <= MEMORY_BUFFER_LIMIT) {
+                fetched = CompletableFuture.supplyAsync(() -> fetchIntoMemory(object), executor);
+            } else if (object.size() >= RANGED_GET_THRESHOLD) {
+                fetched = fetchRanges(object);
+            } else {
+                fetched = CompletableFuture.supplyAsync(() -> fetchIntoFile(object), executor);
+            }
+        } catch (RuntimeException e) {
+            fetched = CompletableFuture.failedFuture(e);
+        }
+        return fetched.exceptionally(e -> {
+            if (!closed) {
+                monitor.warning("Failed to prefetch MinIO object " + object.objectName() + ", it will be read directly: " + e.getMessage());
+            }
+            return directPart.apply(object);
+        });
+    }
+
+    private MinioObjectPart fetchIntoMemory(MinioObject object) {
+        try (var stream = minioClient.getObject(GetObjectArgs.builder().bucket(bucketName).object(object.objectName()).build())) {
+            return new BufferedPart(object, stream.readAllBytes());
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to fetch MinIO object " + object.objectName(), e);
+        }
+    }
+
+    private MinioObjectPart fetchIntoFile(MinioObject object) {
+        var file = createSpillFile();
+        try (var stream = minioClient.getObject(GetObjectArgs.builder().bucket(bucketName).object(object.objectName()).build())) {
+            var size = Files.copy(stream, file, StandardCopyOption.REPLACE_EXISTING);
+            return new SpilledPart(object, file, size);
+        } catch (Exception e) {
+            deleteSpillFile(file);
+            throw new RuntimeException("Failed to fetch MinIO object " + object.objectName(), e);
+        }
+    }
+
+    /**
+     * Downloads a large object as ranged GETs on the range pool, each written at its offset in the spill file. Every range is
+     * conditioned on the listed etag, so an object overwritten during the download fails instead of mixing versions.
+     */
+    private CompletableFuture<MinioObjectPart> fetchRanges(MinioObject object) {
+        var file = createSpillFile();
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            deleteSpillFile(file);
+            throw new UncheckedIOException(e);
+        }
+
+        var ranges = new ArrayList<CompletableFuture<Void>>();
+        for (long offset = 0; offset < object.size(); offset += RANGE_SIZE) {
+            var rangeOffset = offset;
+            var rangeLength = Math.min(RANGE_SIZE, object.size() - offset);
+            ranges.add(CompletableFuture.runAsync(() -> fetchRange(object, channel, rangeOffset, rangeLength), rangeExecutor));
+        }
+
+        return CompletableFuture.allOf(ranges.toArray(CompletableFuture[]::new))
+                .whenComplete((result, error) -> {
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        monitor.debug("Failed to close spill file " + file + ": " + e.getMessage());
+                    }
+                    if (error != null) {
+                        deleteSpillFile(file);
+                    }
+                })
+                .thenApply(result -> new SpilledPart(object, file, object.size()));
+    }
+
+    private void fetchRange(MinioObject object, FileChannel channel, long offset, long length) {
+        var args = GetObjectArgs.builder().bucket(bucketName).object(object.objectName()).offset(offset).length(length);
+        if (object.etag() != null) {
+            args.matchETag(object.etag());
+        }
+        try (var stream = minioClient.getObject(args.build())) {
+            var buffer = new byte[COPY_BUFFER_SIZE];
+            var position = offset;
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                var written = ByteBuffer.wrap(buffer, 0, read);
+                while (written.hasRemaining()) {
+                    position += channel.write(written, position);
+                }
+            }
+            if (position != offset + length) {
+                throw new IOException("Range at offset " + offset + " ended after " + (position - offset) + " of " + length + " bytes");
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to fetch range " + offset + "+" + length + " of MinIO object " + object.objectName(), e);
+        }
+    }
+
+    private Path createSpillFile() {
+        try {
+            var file = Files.createTempFile("minio-prefetch-", ".part");
+            spillFiles.add(file);
+            if (closed) {
+                // close() may already have deleted the spill files it knew about
+                deleteSpillFile(file);
+                throw new IllegalStateException("Prefetcher of bucket " + bucketName + " is closed");
+            }
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create prefetch spill file", e);
+        }
+    }
+
+    private void deleteSpillFile(Path file) {
+        spillFiles.remove(file);
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            monitor.debug("Failed to delete spill file " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the deletion of a spill file, run once its part is closed or unreachable. It must not refer to the part,
+     * or the part would never become unreachable.
+     */
+    private Runnable spillFileDeletion(Path file) {
+        return () -> deleteSpillFile(file);
+    }
+
+    /**
+     * Spliterator over the prefetched parts. It waits for the fetch of the next part to complete
+     * and ends when the prefetcher is closed or the consuming thread is interrupted.
+     */
+    private class PrefetchedSpliterator extends Spliterators.AbstractSpliterator<MinioObjectPart> {
+
+        PrefetchedSpliterator() {
+            super(Long.MAX_VALUE, Spliterator.ORDERED);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super MinioObjectPart> action) {
+            MinioObjectPart part;
+            try {
+                var next = prefetched.take();
+                if (next == END_OF_STREAM) {
+                    // leave the marker for any further call
+                    prefetched.offer(END_OF_STREAM);
+                    return false;
+                }
+                part = next.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException e) {
+                // fetches fall back to a direct part, so this only happens when the prefetcher is shut down
+                return false;
+            }
+            action.accept(part);
+            return true;
+        }
+    }
+
+    /**
+     * Object fully buffered in memory.
+     */
+    private record BufferedPart(MinioObject object, byte[] content) implements MinioObjectPart {
+
+        @Override
+        public String name() {
+            return object.objectName();
+        }
+
+        @Override
+        public long size() {
+            return content.length;
+        }
+
+        @Override
+        public InputStream openStream() {
+            return new ByteArrayInputStream(content);
+        }
+    }
+
+    /**
+     * Object downloaded to a spill file. The file is deleted once the stream opened on it is closed, or once the part
+     * is unreachable if it is never opened; opening the part again after that reads the object directly from MinIO.
+     */
+    private class SpilledPart implements MinioObjectPart {
+
+        private final MinioObject object;
+        private final Path file;
+        private final long size;
+        private final Cleaner.Cleanable deletion;
+
+        SpilledPart(MinioObject object, Path file, long size) {
+            this.object = object;
+            this.file = file;
+            this.size = size;
+            this.deletion = SPILL_FILE_CLEANER.register(this, spillFileDeletion(file));
+        }
+
+        @Override
+        public MinioObject object() {
+            return object;
+        }
+
+        @Override
+        public String name() {
+            return object.objectName();
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public InputStream openStream() {
+            try {
+                return new FileInputStream(file.toFile()) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            deletion.clean();
+                        }
+                    }
+                };
+            } catch (IOException e) {
+                return directPart.apply(object).openStream();
+            }
+        }
+    }
+}
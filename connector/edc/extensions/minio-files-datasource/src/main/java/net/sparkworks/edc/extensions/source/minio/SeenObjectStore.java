@@ -0,0 +1,479 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.source.minio;
+
+import org.eclipse.edc.spi.monitor.Monitor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Compact record of the object versions a MinIO data source has already seen.
+ * <p>
+ * Instead of full listing items, every object is stored as a 64-bit hash of its key and a 64-bit fingerprint of
+ * its etag and size, in an open-addressing table over two {@code long} arrays. The table, together with the
+ * listing watermarks, is checkpointed to disk so that a restarted transfer resumes where it stopped, without
+ * listing the whole bucket again and without re-sending objects it had already seen.
+ * <p>
+ * For content-level deduplication, the store also keeps a set of 64-bit content keys, derived from the etag and
+ * size of an object or from a SHA-256 of its content, each with the time it was recorded, in two more {@code long}
+ * arrays checkpointed with the rest. Content keys older than the retention window are dropped, and when there are
+ * more of them than the cap the oldest are evicted, the same way the LocalFiles hash index bounds its digests.
+ * <p>
+ * The data source records an object only once the sink has read it, so a checkpoint never claims an object that a
+ * crash kept from being sent.
+ */
+class SeenObjectStore {
+
+    private static final int MAGIC = 0x4d534f53;
+    private static final int VERSION = 3;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final Duration DEFAULT_CONTENT_RETENTION = Duration.ofDays(30);
+    private static final int DEFAULT_MAX_CONTENT_KEYS = 1_000_000;
+    private static final Duration MAX_CONTENT_EXPIRY_INTERVAL = Duration.ofHours(1);
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Path checkpointFile;
+    private final Duration contentRetention;
+    private final int maxContentKeys;
+    private final Monitor monitor;
+    private final Clock clock;
+    private final Consumer<SeenObjectStore> onClose;
+    private final Map<String, String> watermarks = new HashMap<>();
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private long[] fingerprints = new long[INITIAL_CAPACITY];
+    private int size;
+    private long[] contentKeys = new long[INITIAL_CAPACITY];
+    private long[] contentTimes = new long[INITIAL_CAPACITY];
+    private int contentCount;
+    private long nextContentExpiry;
+    private boolean dirty;
+    private boolean closed;
+
+    SeenObjectStore(Path checkpointFile, Monitor monitor) {
+        this(checkpointFile, monitor, store -> { });
+    }
+
+    /**
+     * Creates a store checkpointed to a file.
+     *
+     * @param onClose called once when the store is closed, to hand the checkpoint file back to its owner
+     */
+    SeenObjectStore(Path checkpointFile, Monitor monitor, Consumer<SeenObjectStore> onClose) {
+        this(checkpointFile, DEFAULT_CONTENT_RETENTION, DEFAULT_MAX_CONTENT_KEYS, monitor, Clock.systemUTC(), onClose);
+    }
+
+    /**
+     * Creates a store checkpointed to a file.
+     *
+     * @param contentRetention how long the content key of a sent object is remembered
+     * @param maxContentKeys number of content keys remembered at most, the oldest are evicted beyond it
+     * @param onClose called once when the store is closed, to hand the checkpoint file back to its owner
+     */
+    SeenObjectStore(Path checkpointFile, Duration contentRetention, int maxContentKeys, Monitor monitor, Clock clock, Consumer<SeenObjectStore> onClose) {
+        this.checkpointFile = checkpointFile;
+        this.contentRetention = contentRetention;
+        this.maxContentKeys = maxContentKeys;
+        this.monitor = monitor;
+        this.clock = clock;
+        this.onClose = onClose;
+        this.nextContentExpiry = clock.millis() + Math.min(contentRetention.toMillis(), MAX_CONTENT_EXPIRY_INTERVAL.toMillis());
+    }
+
+    /**
+     * Checks whether this version of an object was recorded, without recording it.
+     */
+    synchronized boolean contains(MinioObject object) {
+        var slot = slot(keyHash(object.objectName()));
+        return keys[slot] != 0 && fingerprints[slot] == fingerprint(object);
+    }
+
+    /**
+     * Records an object version.
+     *
+     * @param object the object as listed or notified
+     * @return true if the object was not seen before or its etag or size changed
+     */
+    synchronized boolean update(MinioObject object) {
+        var key = keyHash(object.objectName());
+        var fingerprint = fingerprint(object);
+        var slot = slot(key);
+        if (keys[slot] == key) {
+            if (fingerprints[slot] == fingerprint) {
+                return false;
+            }
+            fingerprints[slot] = fingerprint;
+            dirty = true;
+            return true;
+        }
+
+        if ((size + 1) * 2 > keys.length) {
+            grow();
+            slot = slot(key);
+        }
+        keys[slot] = key;
+        fingerprints[slot] = fingerprint;
+        size++;
+        dirty = true;
+        return true;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether an object with this content key was recorded within the retention window, without recording it.
+     */
+    synchronized boolean containsContent(long contentKey) {
+        var slot = slot(contentKeys, contentKey);
+        return contentKeys[slot] == contentKey && clock.millis() - contentTimes[slot] < contentRetention.toMillis();
+    }
+
+    /**
+     * Records the content key of an object that was sent, restarting its retention if it was already recorded.
+     *
+     * @return true if no object with the same content key was recorded before
+     */
+    synchronized boolean recordContent(long contentKey) {
+        var now = clock.millis();
+        var slot = slot(contentKeys, contentKey);
+        if (contentKeys[slot] == contentKey) {
+            contentTimes[slot] = now;
+            dirty = true;
+            return false;
+        }
+        insertContent(contentKey, now);
+        dirty = true;
+        if (contentCount > maxContentKeys || now >= nextContentExpiry) {
+            expireContent(now);
+        }
+        return true;
+    }
+
+    synchronized int contentCount() {
+        return contentCount;
+    }
+
+    /**
+     * Last key seen for a prefix, or null if the prefix was never listed.
+     */
+    synchronized String watermark(String prefix) {
+        return watermarks.get(prefix);
+    }
+
+    synchronized void advanceWatermark(String prefix, String objectName) {
+        var current = watermarks.get(prefix);
+        if (current == null || objectName.compareTo(current) > 0) {
+            watermarks.put(prefix, objectName);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Loads the last checkpoint, if any.
+     *
+     * @return true if a checkpoint was found and loaded
+     */
+    synchronized boolean restore() {
+        if (!Files.exists(checkpointFile)) {
+            return false;
+        }
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpointFile)))) {
+            var version = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (version < 1 || version > VERSION) {
+                monitor.warning("Ignoring MinIO checkpoint with unknown format: " + checkpointFile);
+                return false;
+            }
+            var watermarkCount = in.readInt();
+            for (int i = 0; i < watermarkCount; i++) {
+                watermarks.put(in.readUTF(), in.readUTF());
+            }
+            var count = in.readInt();
+            keys = new long[capacity(count)];
+            fingerprints = new long[keys.length];
+            size = 0;
+            for (int i = 0; i < count; i++) {
+                var key = in.readLong();
+                var slot = slot(key);
+                if (keys[slot] != key) {
+                    size++;
+                }
+                keys[slot] = key;
+                fingerprints[slot] = in.readLong();
+            }
+            if (version >= 2) {
+                var contents = in.readInt();
+                contentKeys = new long[capacity(contents)];
+                contentTimes = new long[contentKeys.length];
+                contentCount = 0;
+                // version 2 checkpoints have no record times, so their content keys start their retention now
+                var restoredAt = clock.millis();
+                for (int i = 0; i < contents; i++) {
+                    var contentKey = in.readLong();
+                    var recordedAt = version >= 3 ? in.readLong() : restoredAt;
+                    if (contentKeys[slot(contentKeys, contentKey)] != contentKey) {
+                        insertContent(contentKey, recordedAt);
+                    }
+                }
+            }
+            dirty = false;
+            expireContent(clock.millis());
+            return true;
+        } catch (IOException e) {
+            monitor.warning("Failed to load MinIO checkpoint " + checkpointFile + ", starting from a full listing: " + e.getMessage());
+            watermarks.clear();
+            keys = new long[INITIAL_CAPACITY];
+            fingerprints = new long[INITIAL_CAPACITY];
+            size = 0;
+            contentKeys = new long[INITIAL_CAPACITY];
+            contentTimes = new long[INITIAL_CAPACITY];
+            contentCount = 0;
+            return false;
+        }
+    }
+
+    /**
+     * Writes the seen objects and watermarks to disk if they changed since the last checkpoint.
+     * The new checkpoint is forced to disk before it atomically replaces the old one, so a crash never leaves a
+     * partial or empty checkpoint behind.
+     */
+    synchronized void checkpoint() {
+        if (!dirty || closed) {
+            return;
+        }
+        var tmpFile = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(checkpointFile.toAbsolutePath().getParent());
+            try (var channel = FileChannel.open(tmpFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                // not closed on its own: closing it would close the channel before it is forced
+                var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(watermarks.size());
+                for (var watermark : watermarks.entrySet()) {
+                    out.writeUTF(watermark.getKey());
+                    out.writeUTF(watermark.getValue());
+                }
+                out.writeInt(size);
+                for (int slot = 0; slot < keys.length; slot++) {
+                    if (keys[slot] != 0) {
+                        out.writeLong(keys[slot]);
+                        out.writeLong(fingerprints[slot]);
+                    }
+                }
+                out.writeInt(contentCount);
+                for (int slot = 0; slot < contentKeys.length; slot++) {
+                    if (contentKeys[slot] != 0) {
+                        out.writeLong(contentKeys[slot]);
+                        out.writeLong(contentTimes[slot]);
+                    }
+                }
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(tmpFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            monitor.warning("Failed to checkpoint MinIO state to " + checkpointFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a last checkpoint and hands the checkpoint file back. The store records nothing more afterwards.
+     */
+    void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            checkpoint();
+            closed = true;
+        }
+        onClose.accept(this);
+    }
+
+    private int slot(long key) {
+        return slot(keys, key);
+    }
+
+    private static int slot(long[] table, long key) {
+        var mask = table.length - 1;
+        var slot = (int) (key ^ (key >>> 32)) & mask;
+        while (table[slot] != 0 && table[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void insertContent(long contentKey, long recordedAt) {
+        if ((contentCount + 1) * 2 > contentKeys.length) {
+            rebuildContent(contentKeys.length * 2, Long.MIN_VALUE, Long.MIN_VALUE, 0);
+        }
+        var slot = slot(contentKeys, contentKey);
+        contentKeys[slot] = contentKey;
+        contentTimes[slot] = recordedAt;
+        contentCount++;
+    }
+
+    /**
+     * Drops content keys older than the retention window and evicts the oldest beyond the cap.
+     */
+    private void expireContent(long now) {
+        var expiredBefore = now - contentRetention.toMillis();
+
+        // evict down to 90% of the cap so that eviction is not triggered again on the next record;
+        // keys sharing the time of the newest evicted key are evicted only up to the quota
+        var evictBefore = Long.MIN_VALUE;
+        var evictAtCutoff = 0;
+        if (contentCount > maxContentKeys) {
+            var times = new long[contentCount];
+            var count = 0;
+            for (int slot = 0; slot < contentKeys.length; slot++) {
+                if (contentKeys[slot] != 0) {
+                    times[count++] = contentTimes[slot];
+                }
+            }
+            Arrays.sort(times, 0, count);
+            var toEvict = count - (int) (maxContentKeys * 0.9);
+            evictBefore = times[toEvict - 1];
+            var index = toEvict - 1;
+            while (index >= 0 && times[index] == evictBefore) {
+                evictAtCutoff++;
+                index--;
+            }
+        }
+
+        var before = contentCount;
+        rebuildContent(capacity(Math.min(contentCount, maxContentKeys)), expiredBefore, evictBefore, evictAtCutoff);
+        nextContentExpiry = now + Math.min(contentRetention.toMillis(), MAX_CONTENT_EXPIRY_INTERVAL.toMillis());
+        if (contentCount != before) {
+            dirty = true;
+            monitor.debug("Expired MinIO content keys in " + checkpointFile + ": " + before + " -> " + contentCount);
+        }
+    }
+
+    /**
+     * Rehashes the content keys into a table of the given capacity, leaving out those recorded at or before
+     * {@code expiredBefore} and those before {@code evictBefore}, plus {@code evictAtCutoff} of those recorded
+     * exactly at {@code evictBefore}.
+     */
+    private void rebuildContent(int capacity, long expiredBefore, long evictBefore, int evictAtCutoff) {
+        var oldKeys = contentKeys;
+        var oldTimes = contentTimes;
+        contentKeys = new long[capacity];
+        contentTimes = new long[capacity];
+        contentCount = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            var recordedAt = oldTimes[i];
+            if (oldKeys[i] == 0 || recordedAt <= expiredBefore || recordedAt < evictBefore) {
+                continue;
+            }
+            if (recordedAt == evictBefore && evictAtCutoff > 0) {
+                evictAtCutoff--;
+                continue;
+            }
+            var slot = slot(contentKeys, oldKeys[i]);
+            contentKeys[slot] = oldKeys[i];
+            contentTimes[slot] = recordedAt;
+            contentCount++;
+        }
+    }
+
+    private static int capacity(int count) {
+        var capacity = INITIAL_CAPACITY;
+        while (capacity < count * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void grow() {
+        var oldKeys = keys;
+        var oldFingerprints = fingerprints;
+        keys = new long[oldKeys.length * 2];
+        fingerprints = new long[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                var slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                fingerprints[slot] = oldFingerprints[i];
+            }
+        }
+    }
+
+    /**
+     * 64-bit hash of an object key. Zero marks an empty slot, so it is never returned.
+     */
+    static long keyHash(String objectName) {
+        var hash = mix(hash(objectName));
+        return hash != 0 ? hash : 1;
+    }
+
+    static long fingerprint(MinioObject object) {
+        return mix(hash(object.etag() != null ? object.etag() : "") ^ (object.size() * 0x9e3779b97f4a7c15L));
+    }
+
+    /**
+     * Content key of an object from its etag and size. Zero marks an empty slot, so it is never returned.
+     */
+    static long contentKey(MinioObject object) {
+        var contentKey = fingerprint(object);
+        return contentKey != 0 ? contentKey : 1;
+    }
+
+    /**
+     * Content key of an object from the SHA-256 of its content. Zero marks an empty slot, so it is never returned.
+     */
+    static long contentKey(byte[] sha256, long size) {
+        var contentKey = mix(ByteBuffer.wrap(sha256).getLong() ^ (size * 0x9e3779b97f4a7c15L));
+        return contentKey != 0 ? contentKey : 1;
+    }
+
+    private static long hash(String value) {
+        var hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
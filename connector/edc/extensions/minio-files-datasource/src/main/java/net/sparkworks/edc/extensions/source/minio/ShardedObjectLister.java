@@ -0,0 +1,168 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.source.minio;
+
+import io.minio.ListObjectsArgs;
+import io.minio.MinioClient;
+import io.minio.Result;
+import io.minio.messages.Item;
+import org.eclipse.edc.spi.monitor.Monitor;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Lists all objects under a prefix of a MinIO bucket, one shard per top-level common prefix.
+ * <p>
+ * The top-level common prefixes are discovered with a single non-recursive listing, and each of them is then listed
+ * recursively on a bounded pool of threads. Listed objects are handed back to the calling thread through a bounded
+ * queue, so change detection stays single-threaded while the listing requests themselves run concurrently.
+ */
+class ShardedObjectLister implements Closeable {
+
+    private static final int QUEUE_CAPACITY = 10_000;
+    // identity marker put on the queue by every shard when it is done
+    private static final MinioObject END_OF_SHARD = new MinioObject("", null, -1);
+
+    private final MinioClient minioClient;
+    private final String bucketName;
+    private final String prefix;
+    private final int parallelism;
+    private final Monitor monitor;
+    private final ExecutorService executor;
+
+    ShardedObjectLister(MinioClient minioClient, String bucketName, String prefix, int parallelism, Monitor monitor) {
+        this.minioClient = minioClient;
+        this.bucketName = bucketName;
+        this.prefix = prefix;
+        this.parallelism = parallelism;
+        this.monitor = monitor;
+        var threadCount = new AtomicInteger();
+        this.executor = parallelism <= 1 ? null : Executors.newFixedThreadPool(parallelism, runnable -> {
+            var thread = new Thread(runnable, "minio-lister-" + bucketName + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Lists every object under the prefix, skipping directory markers.
+     *
+     * @param consumer receives the listed objects, always on the calling thread
+     */
+    void list(Consumer<MinioObject> consumer) throws Exception {
+        if (executor == null) {
+            listShard(prefix, consumer::accept);
+            return;
+        }
+
+        var shards = new ArrayList<String>();
+        for (Result<Item> result : minioClient.listObjects(ListObjectsArgs.builder().bucket(bucketName).prefix(prefix).recursive(false).build())) {
+            var item = result.get();
+            if (item.isDir()) {
+                shards.add(item.objectName());
+            } else if (!item.objectName().endsWith("/")) {
+                consumer.accept(new MinioObject(item.objectName(), item.etag(), item.size()));
+            }
+        }
+
+        if (shards.size() == 1) {
+            listShard(shards.get(0), consumer::accept);
+        } else if (!shards.isEmpty()) {
+            listConcurrently(shards, consumer);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Lists the shards on the pool and hands their objects to the consumer. The first shard to fail ends the listing
+     * with its error right away and cancels the other shards, instead of waiting for all of them to finish.
+     */
+    private void listConcurrently(List<String> shards, Consumer<MinioObject> consumer) throws Exception {
+        monitor.debug("Listing " + shards.size() + " prefixes of bucket " + bucketName + " on " + parallelism + " threads");
+        BlockingQueue<MinioObject> listed = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        var failure = new AtomicReference<Exception>();
+        var abandoned = new AtomicBoolean();
+        var futures = new ArrayList<Future<?>>(shards.size());
+        try {
+            for (var shard : shards) {
+                futures.add(executor.submit(() -> {
+                    try {
+                        listShard(shard, listed::put);
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        // the marker wakes up the consumer, unless it already gave up on the listing
+                        var queued = false;
+                        while (!queued && !abandoned.get()) {
+                            queued = listed.offer(END_OF_SHARD, 100, TimeUnit.MILLISECONDS);
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            var finished = 0;
+            while (finished < shards.size()) {
+                var object = listed.take();
+                var error = failure.get();
+                if (error != null) {
+                    throw error;
+                }
+                if (object == END_OF_SHARD) {
+                    finished++;
+                } else {
+                    consumer.accept(object);
+                }
+            }
+        } finally {
+            // stops the remaining shards when the listing failed or was abandoned half-way
+            abandoned.set(true);
+            futures.forEach(future -> future.cancel(true));
+            listed.clear();
+        }
+    }
+
+    private void listShard(String shardPrefix, ShardConsumer consumer) throws Exception {
+        for (Result<Item> result : minioClient.listObjects(ListObjectsArgs.builder().bucket(bucketName).prefix(shardPrefix).recursive(true).build())) {
+            var item = result.get();
+            if (!item.objectName().endsWith("/")) {
+                consumer.accept(new MinioObject(item.objectName(), item.etag(), item.size()));
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface ShardConsumer {
+        void accept(MinioObject object) throws InterruptedException;
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.source.minio;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MinioObjectTest {
+
+    @Test
+    void hasMd5Etag_onlyForSinglePartEtags() {
+        assertThat(new MinioObject("a.csv", "\"9e107d9d372bb6826bd81d3542a419d6\"", 10).hasMd5Etag()).isTrue();
+        assertThat(new MinioObject("a.csv", "9e107d9d372bb6826bd81d3542a419d6-3", 10).hasMd5Etag()).isFalse();
+        assertThat(new MinioObject("a.csv", null, 10).hasMd5Etag()).isFalse();
+    }
+}
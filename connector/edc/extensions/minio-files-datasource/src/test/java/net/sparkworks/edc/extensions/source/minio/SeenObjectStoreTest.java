@@ -0,0 +1,135 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.source.minio;
+
+import org.eclipse.edc.spi.monitor.Monitor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class SeenObjectStoreTest {
+
+    @TempDir
+    private Path stateDirectory;
+
+    @Test
+    void restore_returnsCheckpointedObjectsAndWatermarks() {
+        var checkpointFile = stateDirectory.resolve("process.seen");
+        var store = new SeenObjectStore(checkpointFile, mock(Monitor.class));
+        store.update(new MinioObject("data/a.csv", "etag-a", 10));
+        store.update(new MinioObject("data/b.csv", "etag-b", 20));
+        store.recordContent(SeenObjectStore.contentKey(new MinioObject("data/a.csv", "etag-a", 10)));
+        store.advanceWatermark("data/", "data/b.csv");
+        store.checkpoint();
+
+        var restored = new SeenObjectStore(checkpointFile, mock(Monitor.class));
+
+        assertThat(restored.restore()).isTrue();
+        assertThat(restored.size()).isEqualTo(2);
+        assertThat(restored.contains(new MinioObject("data/a.csv", "etag-a", 10))).isTrue();
+        assertThat(restored.contains(new MinioObject("data/b.csv", "etag-changed", 20))).isFalse();
+        assertThat(restored.containsContent(SeenObjectStore.contentKey(new MinioObject("copy/a.csv", "etag-a", 10)))).isTrue();
+        assertThat(restored.watermark("data/")).isEqualTo("data/b.csv");
+        assertThat(Files.exists(stateDirectory.resolve("process.seen.tmp"))).isFalse();
+    }
+
+    @Test
+    void close_checkpointsOnceAndHandsStoreBack() {
+        var checkpointFile = stateDirectory.resolve("process.seen");
+        var released = new ArrayList<SeenObjectStore>();
+        var store = new SeenObjectStore(checkpointFile, mock(Monitor.class), released::add);
+        store.update(new MinioObject("a.csv", "etag-a", 10));
+
+        store.close();
+        store.update(new MinioObject("b.csv", "etag-b", 10));
+        store.checkpoint();
+        store.close();
+
+        assertThat(released).containsExactly(store);
+        var restored = new SeenObjectStore(checkpointFile, mock(Monitor.class));
+        assertThat(restored.restore()).isTrue();
+        assertThat(restored.size()).isEqualTo(1);
+    }
+
+    @Test
+    void containsContent_forgetsContentKeysPastRetention() {
+        var clock = new MutableClock();
+        var checkpointFile = stateDirectory.resolve("process.seen");
+        var store = new SeenObjectStore(checkpointFile, Duration.ofDays(30), 1000, mock(Monitor.class), clock, s -> { });
+        store.recordContent(1L);
+        clock.advance(Duration.ofDays(20));
+        store.recordContent(2L);
+        store.checkpoint();
+
+        clock.advance(Duration.ofDays(15));
+
+        assertThat(store.containsContent(1L)).isFalse();
+        assertThat(store.containsContent(2L)).isTrue();
+        var restored = new SeenObjectStore(checkpointFile, Duration.ofDays(30), 1000, mock(Monitor.class), clock, s -> { });
+        assertThat(restored.restore()).isTrue();
+        assertThat(restored.contentCount()).isEqualTo(1);
+        assertThat(restored.containsContent(2L)).isTrue();
+    }
+
+    @Test
+    void recordContent_evictsOldestContentKeysBeyondCap() {
+        var clock = new MutableClock();
+        var store = new SeenObjectStore(stateDirectory.resolve("process.seen"), Duration.ofDays(30), 100, mock(Monitor.class), clock, s -> { });
+        for (long contentKey = 1; contentKey <= 101; contentKey++) {
+            store.recordContent(contentKey);
+            clock.advance(Duration.ofSeconds(1));
+        }
+
+        assertThat(store.contentCount()).isEqualTo(90);
+        assertThat(store.containsContent(11L)).isFalse();
+        assertThat(store.containsContent(12L)).isTrue();
+        assertThat(store.containsContent(101L)).isTrue();
+    }
+
+    private static class MutableClock extends Clock {
+
+        private Instant now = Instant.parse("2024-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.source.minio;
+
+import io.minio.MakeBucketArgs;
+import io.minio.MinioClient;
+import io.minio.PutObjectArgs;
+import org.eclipse.edc.spi.monitor.Monitor;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.MinIOContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Lists a bucket of a million objects, spread over nested prefixes of uneven size, with the sharded lister and checks
+ * that every object is listed exactly once. Run it with {@code -DincludeTags=IntegrationTest}; the object count can
+ * be lowered with {@code -Dminio.it.objects=<count>}.
+ */
+@Tag("IntegrationTest")
+@Testcontainers(disabledWithoutDocker = true)
+class ShardedObjectListerIT {
+
+    private static final String BUCKET = "listing";
+    private static final int OBJECTS = Integer.getInteger("minio.it.objects", 1_000_000);
+    private static final int TOP_LEVEL_PREFIXES = 64;
+    private static final int UPLOAD_THREADS = 64;
+    private static final byte[] CONTENT = "a,b\n1,2\n".getBytes();
+
+    @Container
+    private static final MinIOContainer MINIO = new MinIOContainer("minio/minio:RELEASE.2023-09-04T19-57-37Z");
+
+    private static MinioClient client;
+
+    @BeforeAll
+    static void uploadObjects() throws Exception {
+        client = MinioClient.builder().endpoint(MINIO.getS3URL()).credentials(MINIO.getUserName(), MINIO.getPassword()).build();
+        client.makeBucket(MakeBucketArgs.builder().bucket(BUCKET).build());
+
+        var started = System.nanoTime();
+        var executor = Executors.newFixedThreadPool(UPLOAD_THREADS);
+        try {
+            var uploads = new ArrayList<Future<?>>(UPLOAD_THREADS);
+            for (int thread = 0; thread < UPLOAD_THREADS; thread++) {
+                var first = thread;
+                uploads.add(executor.submit(() -> {
+                    for (int index = first; index < OBJECTS; index += UPLOAD_THREADS) {
+                        client.putObject(PutObjectArgs.builder().bucket(BUCKET).object(objectName(index))
+                                .stream(new ByteArrayInputStream(CONTENT), CONTENT.length, -1).build());
+                    }
+                    return null;
+                }));
+            }
+            for (var upload : uploads) {
+                upload.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        System.out.printf("Uploaded %d objects in %d s%n", OBJECTS, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started));
+    }
+
+    @Test
+    void list_shardedListsEveryObjectExactlyOnce() throws Exception {
+        var sharded = listAll(8);
+        var serial = listAll(1);
+
+        assertThat(sharded.cardinality()).isEqualTo(OBJECTS);
+        assertThat(serial).isEqualTo(sharded);
+    }
+
+    private static BitSet listAll(int parallelism) throws Exception {
+        var listed = new BitSet(OBJECTS);
+        var duplicates = new ArrayList<String>();
+        var started = System.nanoTime();
+        try (var lister = new ShardedObjectLister(client, BUCKET, "", parallelism, mock(Monitor.class))) {
+            lister.list(object -> {
+                var index = indexOf(object.objectName());
+                if (listed.get(index)) {
+                    duplicates.add(object.objectName());
+                }
+                listed.set(index);
+            });
+        }
+        System.out.printf("Listed %d objects on %d threads in %d ms%n", listed.cardinality(), parallelism,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+
+        assertThat(duplicates).isEmpty();
+        return listed;
+    }
+
+    /**
+     * Every 1000th object sits at the top level, the rest under a top-level prefix, nested one or two levels deep.
+     * The first prefix holds a third of the objects, so that one shard is far larger than the others, as it
+     * tends to be in real buckets.
+     */
+    private static String objectName(int index) {
+        if (index % 1000 == 0) {
+            return String.format("top-%07d.csv", index);
+        }
+        var shard = index % 3 == 0 ? 0 : index % TOP_LEVEL_PREFIXES;
+        var nested = index % 7 == 0 ? String.format("day-%02d/hour-%02d/", index % 31, index % 24) : String.format("day-%02d/", index % 31);
+        return String.format("shard-%02d/%s%07d.csv", shard, nested, index);
+    }
+
+    private static int indexOf(String objectName) {
+        var end = objectName.length() - ".csv".length();
+        return Integer.parseInt(objectName.substring(end - 7, end));
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ *  Copyright (c) 2024 SparkWorks
+ *
+ *  This program and the accompanying materials are made available under the
+ *  terms of the Apache License, Version 2.0 which is available at
+ *  https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Contributors:
+ *       SparkWorks - initial implementation
+ *
+ */
+
+package net.sparkworks.edc.extensions.source.minio;
+
+import io.minio.ListObjectsArgs;
+import io.minio.MinioClient;
+import io.minio.Result;
+import io.minio.messages.Item;
+import org.eclipse.edc.spi.monitor.Monitor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ShardedObjectListerTest {
+
+    @Test
+    @Timeout(10)
+    void list_failsAsSoonAsOneShardFails() throws InterruptedException {
+        var endlessShardListed = new AtomicInteger();
+        var client = mock(MinioClient.class);
+        when(client.listObjects(any(ListObjectsArgs.class))).thenAnswer(invocation -> {
+            ListObjectsArgs args = invocation.getArgument(0);
+            if (!args.recursive()) {
+                return List.of(new Result<>(directory("failing/")), new Result<>(directory("endless/")));
+            }
+            if (args.prefix().equals("failing/")) {
+                return List.of(new Result<>(object("failing/1.csv")), new Result<Item>(new IllegalStateException("listing failing/ failed")));
+            }
+            return (Iterable<Result<Item>>) () -> endlessListing(endlessShardListed);
+        });
+        var listed = new AtomicInteger();
+
+        try (var lister = new ShardedObjectLister(client, "bucket", "", 4, mock(Monitor.class))) {
+            assertThatThrownBy(() -> lister.list(object -> listed.incrementAndGet()))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessageContaining("listing failing/ failed");
+        }
+
+        // the shard that never ends is cancelled rather than left listing in the background
+        var listedAfterFailure = endlessShardListed.get();
+        Thread.sleep(200);
+        assertThat(endlessShardListed.get()).isLessThanOrEqualTo(listedAfterFailure + 1);
+    }
+
+    @Test
+    void list_returnsObjectsOfAllShardsAndTopLevel() throws Exception {
+        var client = mock(MinioClient.class);
+        when(client.listObjects(any(ListObjectsArgs.class))).thenAnswer(invocation -> {
+            ListObjectsArgs args = invocation.getArgument(0);
+            if (!args.recursive()) {
+                return List.of(new Result<>(object("top.csv")), new Result<>(directory("a/")), new Result<>(directory("b/")));
+            }
+            return List.of(new Result<>(object(args.prefix() + "1.csv")), new Result<>(object(args.prefix() + "deep/2.csv")));
+        });
+        var listed = new ArrayList<String>();
+
+        try (var lister = new ShardedObjectLister(client, "bucket", "", 2, mock(Monitor.class))) {
+            lister.list(object -> listed.add(object.objectName()));
+        }
+
+        assertThat(listed).containsExactlyInAnyOrder("top.csv", "a/1.csv", "a/deep/2.csv", "b/1.csv", "b/deep/2.csv");
+    }
+
+    private static Iterator<Result<Item>> endlessListing(AtomicInteger count) {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Result<Item> next() {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return new Result<>(e);
+                }
+                return new Result<>(object("endless/" + count.getAndIncrement() + ".csv"));
+            }
+        };
+    }
+
+    private static Item directory(String name) {
+        var item = mock(Item.class);
+        when(item.objectName()).thenReturn(name);
+        when(item.isDir()).thenReturn(true);
+        return item;
+    }
+
+    private static Item object(String name) {
+        var item = mock(Item.class);
+        when(item.objectName()).thenReturn(name);
+        when(item.etag()).thenReturn("etag-" + name);
+        when(item.size()).thenReturn(1L);
+        return item;
+    }
+}
@@ -12,6 +12,9 @@ dependencies {
     implementation(libs.edc.data.plane.core)
     implementation(libs.edc.data.plane.http)
 
+    // Upload scheduling, rate limiting and streaming request bodies shared by the sinks
+    implementation(project(":edc:extensions:http-upload-common"))
+
     // HTTP client and JSON parsing for Piveau API
     implementation(libs.okhttp)
     implementation(libs.jackson.core)
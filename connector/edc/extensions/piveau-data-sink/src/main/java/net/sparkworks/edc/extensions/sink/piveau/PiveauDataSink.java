@@ -15,6 +15,11 @@
 package net.sparkworks.edc.extensions.sink.piveau;
 
 import net.sparkworks.edc.extensions.sink.piveau.common.PiveauApiHandler;
+import net.sparkworks.edc.extensions.upload.GzipRequestBody;
+import net.sparkworks.edc.extensions.upload.PartRequestBody;
+import net.sparkworks.edc.extensions.upload.ThrottledRequestBody;
+import net.sparkworks.edc.extensions.upload.TokenBucket;
+import net.sparkworks.edc.extensions.upload.UploadScheduler;
 import okhttp3.MediaType;
 import okhttp3.Request;
 import okhttp3.RequestBody;
@@ -35,21 +40,55 @@ import java.util.concurrent.ExecutorService;
  * - .json files: Register dataset to Piveau Hub Repo API (consume, don't forward)
  * - .csv files: Forward to configured HTTP endpoint
  * - Other files: Forward to configured HTTP endpoint (or ignore based on config)
+ * <p>
+ * CSV files are streamed to the endpoint without being read into memory, optionally gzip-compressed on the fly.
+ * Their uploads take a slot of the {@link UploadScheduler} shared by all transfers, in proportion to the transfer's
+ * weight, and are paced to the requests and bytes per second of its {@link RateLimits}.
  */
 public class PiveauDataSink implements DataSink {
+    private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+    
     private final EdcHttpClient httpClient;
     private final HttpDataAddress destinationAddress;
     private final Monitor monitor;
     private final PiveauApiHandler piveauApiHandler;
     private final ExecutorService executorService;
+    private final Compression compression;
+    private final UploadScheduler.Share uploadShare;
+    // null when the transfer is not limited
+    private final TokenBucket requestRate;
+    private final TokenBucket byteRate;
     private final String authKey;
     
-    public PiveauDataSink(EdcHttpClient httpClient, HttpDataAddress destinationAddress, Monitor monitor, ExecutorService executorService) {
+    /**
+     * Content encoding of the forwarded files.
+     */
+    public enum Compression {
+        NONE,
+        GZIP
+    }
+    
+    /**
+     * Limits of a transfer towards the endpoint, so that one transfer cannot crowd out the others.
+     *
+     * @param bytesPerSecond bytes sent per second, after compression, 0 for no limit
+     * @param requestsPerSecond requests sent per second, 0 for no limit
+     * @param weight share of the upload slots relative to the other transfers
+     */
+    public record RateLimits(long bytesPerSecond, long requestsPerSecond, int weight) {
+    }
+    
+    public PiveauDataSink(EdcHttpClient httpClient, HttpDataAddress destinationAddress, Monitor monitor, ExecutorService executorService, Compression compression,
+                          RateLimits rateLimits, UploadScheduler uploadScheduler) {
         this.httpClient = httpClient;
         this.monitor = monitor;
         this.destinationAddress = destinationAddress;
         this.piveauApiHandler = new PiveauApiHandler(destinationAddress.getStringProperty("piveauUrl"), destinationAddress.getStringProperty("piveauApiKey"), destinationAddress.getStringProperty("piveauCatalogue"), monitor);
         this.executorService = executorService;
+        this.compression = compression;
+        this.uploadShare = uploadScheduler.share(rateLimits.weight());
+        this.requestRate = rateLimits.requestsPerSecond() > 0 ? new TokenBucket(rateLimits.requestsPerSecond()) : null;
+        this.byteRate = rateLimits.bytesPerSecond() > 0 ? new TokenBucket(rateLimits.bytesPerSecond()) : null;
         
         // Extract auth token from destination address properties
         this.authKey = destinationAddress.getAuthKey();
@@ -142,54 +181,69 @@ public class PiveauDataSink implements DataSink {
         String filePath = part.name();
         
         try {
-            // Read JSON content
-            String jsonContent;
-            try (var inputStream = part.openStream()) {
-                byte[] fileContent = inputStream.readAllBytes();
-
-                // Create distribution in Piveau for this file
-                if (piveauApiHandler != null && dirName != null) {
-                    try {
-                        String distributionId = piveauApiHandler.createDistribution(dirName, fileName);
-                        monitor.info("✓ Distribution created in Piveau: " + distributionId);
-                    } catch (IOException e) {
-                        monitor.warning("⚠ Failed to create distribution in Piveau: " + e.getMessage());
-                        // Continue with file upload even if distribution creation fails
-                    }
-                } else {
-                    monitor.warning("⚠ Piveau API handler not configured or dataset ID not available, skipping distribution creation");
-                }
-
-                var requestBody = RequestBody.create(fileContent, MediaType.parse("application/octet-stream"));
-                
-                // Build HTTP request with custom headers
-                var requestBuilder = new Request.Builder().url(destinationAddress.getBaseUrl()).post(requestBody)
-                        .header("X-File-Path", dirName) //the dire to store the file
-                        .header("X-File-Name", fileName) //the name of the file
-                        .header("Content-Type", "application/octet-stream");
-                
-                // Add Authorization header if auth token is configured
-                if (authKey != null && !authKey.isEmpty()) {
-                    requestBuilder.header("Authorization", "Bearer " + authKey);
-                    monitor.debug("Adding Authorization header to request");
+            // Create distribution in Piveau for this file
+            if (piveauApiHandler != null && dirName != null) {
+                try {
+                    String distributionId = piveauApiHandler.createDistribution(dirName, fileName);
+                    monitor.info("✓ Distribution created in Piveau: " + distributionId);
+                } catch (IOException e) {
+                    monitor.warning("⚠ Failed to create distribution in Piveau: " + e.getMessage());
+                    // Continue with file upload even if distribution creation fails
                 }
-                
-                var httpRequest = requestBuilder.build();
-                
-                monitor.info("Sending HTTP POST to: " + destinationAddress.getBaseUrl());
-                
-                // Execute the HTTP request
-                try (var response = httpClient.execute(httpRequest)) {
-                    if (response.isSuccessful()) {
-                        monitor.info("Successfully transferred file: " + filePath + " (status: " + response.code() + ")");
-                    } else {
-                        monitor.warning("Failed to transfer file: " + filePath + " (status: " + response.code() + ")");
-                    }
+            } else {
+                monitor.warning("⚠ Piveau API handler not configured or dataset ID not available, skipping distribution creation");
+            }
+            
+            // Stream the file content to the socket instead of buffering it on the heap
+            RequestBody requestBody = new PartRequestBody(part, OCTET_STREAM);
+            if (compression == Compression.GZIP) {
+                requestBody = new GzipRequestBody(requestBody);
+            }
+            if (byteRate != null) {
+                requestBody = new ThrottledRequestBody(requestBody, byteRate);
+            }
+            
+            // Build HTTP request with custom headers
+            var requestBuilder = new Request.Builder().url(destinationAddress.getBaseUrl()).post(requestBody)
+                    .header("X-File-Path", dirName) //the dire to store the file
+                    .header("X-File-Name", fileName) //the name of the file
+                    .header("Content-Type", "application/octet-stream");
+            if (compression == Compression.GZIP) {
+                requestBuilder.header("Content-Encoding", "gzip");
+            }
+            
+            // Add Authorization header if auth token is configured
+            if (authKey != null && !authKey.isEmpty()) {
+                requestBuilder.header("Authorization", "Bearer " + authKey);
+                monitor.debug("Adding Authorization header to request");
+            }
+            
+            var httpRequest = requestBuilder.build();
+            
+            // Wait for the transfer's turn before taking an upload slot
+            if (requestRate != null) {
+                requestRate.acquire(1);
+            }
+            uploadShare.acquire();
+            
+            monitor.info("Sending HTTP POST to: " + destinationAddress.getBaseUrl());
+            
+            // Execute the HTTP request
+            try (var response = httpClient.execute(httpRequest)) {
+                if (response.isSuccessful()) {
+                    monitor.info("Successfully transferred file: " + filePath + " (status: " + response.code() + ")");
+                } else {
+                    monitor.warning("Failed to transfer file: " + filePath + " (status: " + response.code() + ")");
                 }
+            } finally {
+                uploadShare.release();
             }
             
         } catch (IOException e) {
             monitor.severe("✗ Failed to process CSV file: " + fileName, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            monitor.severe("✗ Interrupted while uploading CSV file: " + fileName);
         }
     }
     
@@ -14,6 +14,8 @@
 
 package net.sparkworks.edc.extensions.sink.piveau;
 
+import net.sparkworks.edc.extensions.upload.TransferExecutors;
+import net.sparkworks.edc.extensions.upload.UploadScheduler;
 import org.eclipse.edc.connector.dataplane.spi.pipeline.PipelineService;
 import org.eclipse.edc.http.spi.EdcHttpClient;
 import org.eclipse.edc.runtime.metamodel.annotation.Inject;
@@ -21,8 +23,6 @@ import org.eclipse.edc.spi.system.ServiceExtension;
 import org.eclipse.edc.spi.system.ServiceExtensionContext;
 import org.eclipse.edc.runtime.metamodel.annotation.Setting;
 
-import java.util.concurrent.Executors;
-
 /**
  * Extension that registers a routing data sink.
  * Routes files to different destinations based on file type:
@@ -37,6 +37,12 @@ public class PiveauDataSinkExtension implements ServiceExtension {
     @Setting(value = "API key for Piveau Hub Repo")
     private static final String PIVEAU_API_KEY = "edc.external.api.key";
 
+    @Setting(value = "Upload requests running at once across all Piveau sink transfers, shared between them by their upload weight")
+    private static final String MAX_CONCURRENT_UPLOADS = "edc.piveau.sink.uploads.max";
+
+    @Setting(value = "Threads that run the transfers: 'platform' for a pool of platform threads, 'virtual' for a virtual thread per transfer (Java 21 or later)")
+    private static final String TRANSFER_THREADS = "edc.piveau.sink.transfer.threads";
+
     @Override
     public String name() {
         return "Piveau Routing Data Sink";
@@ -51,17 +57,19 @@ public class PiveauDataSinkExtension implements ServiceExtension {
     @Override
     public void initialize(ServiceExtensionContext context) {
         var monitor = context.getMonitor();
-        var executorService = Executors.newFixedThreadPool(10);
+        var executorService = TransferExecutors.create(context.getSetting(TRANSFER_THREADS, "platform"), "piveau-sink-transfer-", monitor);
+        var maxConcurrentUploads = context.getSetting(MAX_CONCURRENT_UPLOADS, 32);
 
         var piveauApiUrl = context.getSetting(PIVEAU_API_URL, "http://localhost:8080/datasets");
         var piveauApiKey = context.getSetting(PIVEAU_API_KEY, "");
 
         // Register routing data sink factory
-        pipelineService.registerFactory(new PiveauDataSinkFactory(monitor, httpClient, executorService));
+        pipelineService.registerFactory(new PiveauDataSinkFactory(monitor, httpClient, executorService, new UploadScheduler(maxConcurrentUploads)));
 
         monitor.info("✓ Piveau Routing Data Sink registered");
         monitor.info("  Type: PiveauRouting");
         monitor.info("  JSON files → Piveau Hub Repo API: " + piveauApiUrl);
         monitor.info("  CSV files → HTTP endpoint (configured per transfer)");
+        monitor.info("  Concurrent uploads: " + maxConcurrentUploads);
     }
 }
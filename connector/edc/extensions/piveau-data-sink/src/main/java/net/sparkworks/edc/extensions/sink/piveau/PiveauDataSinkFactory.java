@@ -15,6 +15,7 @@
 package net.sparkworks.edc.extensions.sink.piveau;
 
 import net.sparkworks.edc.extensions.sink.piveau.common.PiveauApiHandler;
+import net.sparkworks.edc.extensions.upload.UploadScheduler;
 import org.eclipse.edc.connector.dataplane.http.spi.HttpDataAddress;
 import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSink;
 import org.eclipse.edc.connector.dataplane.spi.pipeline.DataSinkFactory;
@@ -22,6 +23,7 @@ import org.eclipse.edc.connector.dataplane.spi.pipeline.StreamResult;
 import org.eclipse.edc.http.spi.EdcHttpClient;
 import org.eclipse.edc.spi.monitor.Monitor;
 import org.eclipse.edc.spi.result.Result;
+import org.eclipse.edc.spi.types.domain.DataAddress;
 import org.eclipse.edc.spi.types.domain.transfer.DataFlowStartMessage;
 import org.jetbrains.annotations.NotNull;
 
@@ -33,14 +35,21 @@ import java.util.concurrent.ExecutorService;
  */
 public class PiveauDataSinkFactory implements DataSinkFactory {
     
+    private static final String DEFAULT_COMPRESSION = "none";
+    private static final String DEFAULT_RATE_LIMIT_BYTES_PER_SECOND = "0";
+    private static final String DEFAULT_RATE_LIMIT_REQUESTS_PER_SECOND = "0";
+    private static final String DEFAULT_UPLOAD_WEIGHT = "1";
+    
     private final Monitor monitor;
     private final EdcHttpClient httpClient;
     private final ExecutorService executorService;
+    private final UploadScheduler uploadScheduler;
     
-    public PiveauDataSinkFactory(Monitor monitor, EdcHttpClient httpClient, ExecutorService executorService) {
+    public PiveauDataSinkFactory(Monitor monitor, EdcHttpClient httpClient, ExecutorService executorService, UploadScheduler uploadScheduler) {
         this.monitor = monitor;
         this.httpClient = httpClient;
         this.executorService = executorService;
+        this.uploadScheduler = uploadScheduler;
     }
     
     @Override
@@ -50,6 +59,20 @@ public class PiveauDataSinkFactory implements DataSinkFactory {
     
     @Override
     public @NotNull Result<Void> validateRequest(DataFlowStartMessage request) {
+        var compression = request.getDestinationDataAddress().getStringProperty("compression", DEFAULT_COMPRESSION);
+        try {
+            PiveauDataSink.Compression.valueOf(compression.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Result.failure("Unsupported compression: " + compression);
+        }
+        try {
+            var rateLimits = rateLimits(request.getDestinationDataAddress());
+            if (rateLimits.bytesPerSecond() < 0 || rateLimits.requestsPerSecond() < 0 || rateLimits.weight() < 1) {
+                return Result.failure("rateLimitBytesPerSecond and rateLimitRequestsPerSecond must not be negative and uploadWeight must be at least 1");
+            }
+        } catch (NumberFormatException e) {
+            return Result.failure("Invalid rate limit: " + e.getMessage());
+        }
         return Result.success();
     }
     
@@ -58,8 +81,16 @@ public class PiveauDataSinkFactory implements DataSinkFactory {
         monitor.info("Creating PiveauDataSink for request: " + request.getId());
         
         var destinationAddress = HttpDataAddress.Builder.newInstance().copyFrom(request.getDestinationDataAddress()).build();
+        var compression = PiveauDataSink.Compression.valueOf(destinationAddress.getStringProperty("compression", DEFAULT_COMPRESSION).toUpperCase());
         
         // Create and return the routing sink
-        return new PiveauDataSink(httpClient, destinationAddress, monitor, executorService);
+        return new PiveauDataSink(httpClient, destinationAddress, monitor, executorService, compression, rateLimits(destinationAddress), uploadScheduler);
+    }
+    
+    private PiveauDataSink.RateLimits rateLimits(DataAddress address) {
+        return new PiveauDataSink.RateLimits(
+                Long.parseLong(address.getStringProperty("rateLimitBytesPerSecond", DEFAULT_RATE_LIMIT_BYTES_PER_SECOND)),
+                Long.parseLong(address.getStringProperty("rateLimitRequestsPerSecond", DEFAULT_RATE_LIMIT_REQUESTS_PER_SECOND)),
+                Integer.parseInt(address.getStringProperty("uploadWeight", DEFAULT_UPLOAD_WEIGHT)));
     }
 }
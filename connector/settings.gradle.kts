@@ -16,6 +16,7 @@ dependencyResolutionManagement {
 include(":edc:extensions:transfer-recovery")
 include(":edc:extensions:local-files-datasource")
 include(":edc:extensions:minio-files-datasource")
+include(":edc:extensions:http-upload-common")
 include(":edc:extensions:piveau-data-sink")
 include(":edc:extensions:http-data-sink")
 include(":edc:connectors:ac3-uc1")